@@ -22,12 +22,14 @@ import static org.sourcepit.common.utils.xml.XmlUtils.queryNode;
 import static org.sourcepit.common.utils.xml.XmlUtils.writeXml;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
 import java.util.Map;
 
 import javax.inject.Inject;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
@@ -38,10 +40,13 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.repository.RepositorySystem;
 import org.sourcepit.common.utils.io.Read.FromStream;
+import org.sourcepit.common.utils.lang.Exceptions;
 import org.sourcepit.common.utils.lang.PipedException;
 import org.sourcepit.common.utils.xml.XmlUtils;
 import org.sourcepit.tpmp.ee.ExecutionEnvironmentSelector;
+import org.sourcepit.tpmp.resolver.TargetPlatformResolutionOptions;
 import org.sourcepit.tpmp.resolver.TargetPlatformResolver;
+import org.sourcepit.tpmp.store.BundleStore;
 import org.w3c.dom.Document;
 
 public abstract class AbstractTargetPlatformMojo extends AbstractMojo {
@@ -54,6 +59,29 @@ public abstract class AbstractTargetPlatformMojo extends AbstractMojo {
    @Parameter(property = "tpmp.forceUpdate", defaultValue = "false")
    private boolean forceUpdate;
 
+   /**
+    * Lets the per-session strategy skip the resolution, if neither the configuration nor the index files of the p2
+    * repositories changed since the last one and all bundles it delivered are still in place. Children of composite
+    * repositories that change in place, as well as repositories that can't be inspected, go unnoticed or prevent the
+    * skip, so this is off by default.
+    */
+   @Parameter(property = "tpmp.skipUnchanged", defaultValue = "false")
+   private boolean skipUnchanged;
+
+   /**
+    * Lets the per-session strategy record the bundles each resolution delivered and replay a recording made for the
+    * same configuration and unchanged repositories instead of resolving again, e.g. in another checkout.
+    */
+   @Parameter(property = "tpmp.replayResolutions", defaultValue = "false")
+   private boolean replayResolutions;
+
+   /**
+    * Where recorded resolutions are kept for replay. Only the most recently used recordings are retained.
+    */
+   @Parameter(property = "tpmp.resolutionManifestDir",
+      defaultValue = "${settings.localRepository}/.cache/tpmp/resolutions")
+   private File resolutionManifestDir;
+
    @Parameter(property = "tpmp.includeSource", defaultValue = "true")
    private boolean includeSource;
 
@@ -66,6 +94,38 @@ public abstract class AbstractTargetPlatformMojo extends AbstractMojo {
    @Parameter(property = "tpmp.resolutionStrategy", defaultValue = "per-session")
    protected String resolutionStrategy;
 
+   /**
+    * The number of threads that place bundles into the target platform. The materialize goal also deflates the
+    * entries of the platform archive with them and the localize goal extracts the downloaded archive with them.
+    */
+   @Parameter(property = "tpmp.materializeThreads", defaultValue = "1")
+   protected int materializeThreads;
+
+   /**
+    * The number of reactor projects the per-project strategy resolves concurrently. Projects still wait for the
+    * reactor projects they depend on. Tycho doesn't guarantee that its resolver is thread-safe, so keep the default
+    * unless your reactor is known to resolve fine this way.
+    */
+   @Parameter(property = "tpmp.resolutionThreads", defaultValue = "1")
+   protected int resolutionThreads;
+
+   /**
+    * The number of threads the per-session strategy resolves source bundles with. The sources are resolved in batches
+    * while the bundles are still handled. All batches resolve against the same Tycho target platform, which isn't
+    * known to be thread-safe, so keep the default unless your platform is known to resolve fine this way.
+    */
+   @Parameter(property = "tpmp.sourceThreads", defaultValue = "1")
+   protected int sourceThreads;
+
+   @Parameter(property = "tpmp.linkMode", defaultValue = "copy")
+   protected String linkMode;
+
+   @Parameter(property = "tpmp.useBundleStore", defaultValue = "false")
+   protected boolean useBundleStore;
+
+   @Parameter(property = "tpmp.bundleStoreDir", defaultValue = "${user.home}/.tpmp/store")
+   protected File bundleStoreDir;
+
    @Inject
    protected RepositorySystem repositorySystem;
 
@@ -96,10 +156,55 @@ public abstract class AbstractTargetPlatformMojo extends AbstractMojo {
    }
 
    protected void updateTargetPlatform(final MavenProject project, final File platformDir) {
-      final TargetPlatformResolver resolver = getResolver();
+      updateTargetPlatform(project, platformDir, getResolver());
+   }
 
-      final CopyTargetPlatformResolutionHandler resolutionHandler = new CopyTargetPlatformResolutionHandler(platformDir);
-      resolver.resolve(getSession(), platformDir, includeSource, forceUpdate, resolutionHandler, resolutionHandler);
+   protected void updateTargetPlatform(final MavenProject project, final File platformDir,
+      TargetPlatformResolver resolver) {
+      LinkMode mode = LinkMode.parse(linkMode);
+      final BundleStore bundleStore;
+      if (useBundleStore) {
+         if (mode == LinkMode.COPY) {
+            getLog().info("Copying bundles out of the bundle store would defeat its purpose, using hard links.");
+            mode = LinkMode.HARDLINK;
+         }
+         bundleStore = new BundleStore(bundleStoreDir);
+      }
+      else {
+         bundleStore = null;
+      }
+
+      final WorkerPool workerPool = new WorkerPool("materialize", materializeThreads);
+      final CopyTargetPlatformResolutionHandler resolutionHandler = new CopyTargetPlatformResolutionHandler(
+         platformDir, workerPool, mode, bundleStore);
+      final DeduplicatingResolutionHandler deduplicatingHandler = new DeduplicatingResolutionHandler(
+         resolutionHandler);
+      openBundleStore(bundleStore);
+      try {
+         try {
+            final TargetPlatformResolutionOptions options = newResolutionOptions();
+            options.setForceUpdate(forceUpdate);
+            options.setSkipUnchanged(skipUnchanged);
+            options.setResolutionManifestDir(replayResolutions ? resolutionManifestDir : null);
+            resolver.resolve(getSession(), platformDir, options, resolutionHandler, deduplicatingHandler);
+         }
+         catch (RuntimeException e) {
+            abortMaterialization(workerPool, platformDir, e);
+            throw e;
+         }
+         catch (Error e) {
+            abortMaterialization(workerPool, platformDir, e);
+            throw e;
+         }
+         awaitMaterialization(workerPool, platformDir);
+      }
+      finally {
+         closeBundleStore(bundleStore);
+      }
+
+      getLog().info(
+         "Bundle requests: " + deduplicatingHandler.getMisses() + " processed, " + deduplicatingHandler.getHits()
+            + " skipped as duplicates");
 
       final String executionEnvironment = selectExecutionEnvironment(resolutionHandler.getExecutionEnvironments());
       writeDefinitions(project, platformDir, executionEnvironment, resolutionHandler.getTargetEnvironments());
@@ -107,6 +212,120 @@ public abstract class AbstractTargetPlatformMojo extends AbstractMojo {
       writeDotProject(platformDir);
    }
 
+   protected void streamTargetPlatform(final MavenProject project, final File platformZipFile) {
+      final TargetPlatformResolver resolver = getResolver();
+
+      // receives the resolver metadata, which stays out of the archive, and the target definitions
+      final File workDir = new File(targetDir, getClassifiedName(project) + ".tmp");
+      final File definitionsDir = new File(workDir, "definitions");
+      try {
+         FileUtils.deleteDirectory(workDir);
+
+         final ZipTargetPlatformResolutionHandler resolutionHandler = new ZipTargetPlatformResolutionHandler(
+            platformZipFile, getClassifiedName(project));
+         try {
+            // nothing is materialized that could be up to date, so everything must be resolved again
+            final TargetPlatformResolutionOptions options = newResolutionOptions();
+            options.setForceUpdate(true);
+            resolver.resolve(getSession(), workDir, options, resolutionHandler, resolutionHandler);
+
+            final String executionEnvironment = selectExecutionEnvironment(resolutionHandler
+               .getExecutionEnvironments());
+            // the definitions must refer to the platform layout the archive extracts to, as if materialized
+            writeDefinitions(project, definitionsDir, getPlatformDir(project), executionEnvironment,
+               resolutionHandler.getTargetEnvironments());
+
+            resolutionHandler.addFiles(definitionsDir);
+         }
+         catch (RuntimeException e) {
+            // a partial archive must not be mistaken for the platform
+            resolutionHandler.abort();
+            throw e;
+         }
+         catch (Error e) {
+            resolutionHandler.abort();
+            throw e;
+         }
+         resolutionHandler.close();
+
+         FileUtils.deleteDirectory(workDir);
+      }
+      catch (IOException e) {
+         throw Exceptions.pipe(e);
+      }
+   }
+
+   private TargetPlatformResolutionOptions newResolutionOptions() {
+      final TargetPlatformResolutionOptions options = new TargetPlatformResolutionOptions();
+      options.setIncludeSource(includeSource);
+      options.setResolutionThreads(resolutionThreads);
+      options.setSourceThreads(sourceThreads);
+      return options;
+   }
+
+   private static void openBundleStore(BundleStore bundleStore) {
+      if (bundleStore != null) {
+         try {
+            // keeps the garbage collection from deleting entries we are about to link
+            bundleStore.open();
+         }
+         catch (IOException e) {
+            throw Exceptions.pipe(e);
+         }
+      }
+   }
+
+   private void closeBundleStore(BundleStore bundleStore) {
+      if (bundleStore != null) {
+         try {
+            bundleStore.close();
+         }
+         catch (IOException e) {
+            getLog().warn("Failed to release the bundle store: " + e.getMessage());
+         }
+      }
+   }
+
+   private void awaitMaterialization(WorkerPool workerPool, File platformDir) {
+      try {
+         workerPool.join();
+      }
+      catch (RuntimeException e) {
+         discardMetadata(platformDir);
+         throw e;
+      }
+      catch (Error e) {
+         discardMetadata(platformDir);
+         throw e;
+      }
+      finally {
+         workerPool.shutdown();
+      }
+   }
+
+   private void abortMaterialization(WorkerPool workerPool, File platformDir, Throwable resolutionFailure) {
+      // the resolution failure is what the user needs to see, failed copies are secondary
+      try {
+         awaitMaterialization(workerPool, platformDir);
+      }
+      catch (RuntimeException e) {
+         resolutionFailure.addSuppressed(e);
+      }
+      catch (Error e) {
+         resolutionFailure.addSuppressed(e);
+      }
+   }
+
+   private void discardMetadata(File platformDir) {
+      // the resolver may already have recorded the platform as up to date while bundles were still in flight
+      try {
+         FileUtils.deleteDirectory(new File(platformDir, ".tpmp"));
+      }
+      catch (IOException e) {
+         getLog().warn("Failed to discard target platform metadata: " + e.getMessage());
+      }
+   }
+
    protected MavenSession getSession() {
       return buildContext.getSession();
    }
@@ -143,12 +362,17 @@ public abstract class AbstractTargetPlatformMojo extends AbstractMojo {
 
    protected void writeDefinitions(MavenProject project, File parentDir, String executionEnvironment,
       Collection<TargetEnvironment> targetEnvironments) {
+      writeDefinitions(project, parentDir, parentDir, executionEnvironment, targetEnvironments);
+   }
+
+   protected void writeDefinitions(MavenProject project, File parentDir, File platformDir,
+      String executionEnvironment, Collection<TargetEnvironment> targetEnvironments) {
       for (TargetEnvironment targetEnvironment : targetEnvironments) {
          final String platformName = getTargetPlatformDefinitionName(project, targetEnvironment);
 
          final File targetFile = new File(parentDir, platformName + ".target");
 
-         new TargetPlatformWriter().write(targetFile, platformName, parentDir.getAbsolutePath(), targetEnvironment,
+         new TargetPlatformWriter().write(targetFile, platformName, platformDir.getAbsolutePath(), targetEnvironment,
             executionEnvironment);
       }
    }
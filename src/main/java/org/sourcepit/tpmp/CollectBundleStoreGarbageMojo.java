@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.sourcepit.tpmp.store.BundleStore;
+
+/**
+ * @author Bernd Vogt <bernd.vogt@sourcepit.org>
+ */
+@Mojo(name = "gc", requiresProject = false, aggregator = true)
+public class CollectBundleStoreGarbageMojo extends AbstractMojo {
+   @Parameter(property = "tpmp.bundleStoreDir", defaultValue = "${user.home}/.tpmp/store")
+   private File bundleStoreDir;
+
+   @Parameter(property = "tpmp.bundleStoreMaxAgeDays", defaultValue = "30")
+   private int maxAgeDays;
+
+   @Parameter(property = "tpmp.bundleStoreMaxSizeMB", defaultValue = "0")
+   private long maxSizeMB;
+
+   @Override
+   public void execute() throws MojoExecutionException {
+      if (!bundleStoreDir.exists()) {
+         getLog().info("Bundle store " + bundleStoreDir + " does not exist, nothing to do.");
+         return;
+      }
+
+      final BundleStore bundleStore = new BundleStore(bundleStoreDir);
+      try {
+         final int deleted = bundleStore.collectGarbage(TimeUnit.DAYS.toMillis(maxAgeDays), maxSizeMB * 1024 * 1024);
+         if (deleted < 0) {
+            getLog().warn("Bundle store " + bundleStoreDir + " is in use by a running build, skipping collection.");
+         }
+         else {
+            getLog().info("Deleted " + deleted + " unreferenced entries from bundle store " + bundleStoreDir);
+         }
+      }
+      catch (IOException e) {
+         throw new MojoExecutionException("Failed to collect garbage of bundle store " + bundleStoreDir, e);
+      }
+   }
+}
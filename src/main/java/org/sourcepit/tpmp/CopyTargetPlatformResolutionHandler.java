@@ -16,14 +16,11 @@
 
 package org.sourcepit.tpmp;
 
-import static org.sourcepit.common.utils.file.FileUtils.deleteFileOrDirectory;
-
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.maven.project.MavenProject;
 import org.sourcepit.common.constraints.NotNull;
 import org.sourcepit.common.utils.lang.Exceptions;
@@ -31,6 +28,7 @@ import org.sourcepit.common.utils.zip.ZipProcessingRequest;
 import org.sourcepit.common.utils.zip.ZipProcessor;
 import org.sourcepit.tpmp.resolver.TargetPlatformConfigurationHandler;
 import org.sourcepit.tpmp.resolver.TargetPlatformResolutionHandler;
+import org.sourcepit.tpmp.store.BundleStore;
 
 public class CopyTargetPlatformResolutionHandler
    implements
@@ -43,8 +41,36 @@ public class CopyTargetPlatformResolutionHandler
    private final File featuresDir;
    private final File pluginsDir;
 
+   private final WorkerPool workerPool;
+
+   private final LinkMode linkMode;
+
+   private final BundleStore bundleStore;
+
+   // a fixed set of locks, so that memory doesn't grow with the number of handled bundles
+   private final Object[] locks = new Object[64];
+
    public CopyTargetPlatformResolutionHandler(File targetDir) {
+      this(targetDir, new WorkerPool("materialize", 1));
+   }
+
+   public CopyTargetPlatformResolutionHandler(File targetDir, WorkerPool workerPool) {
+      this(targetDir, workerPool, LinkMode.COPY);
+   }
+
+   public CopyTargetPlatformResolutionHandler(File targetDir, WorkerPool workerPool, LinkMode linkMode) {
+      this(targetDir, workerPool, linkMode, null);
+   }
+
+   public CopyTargetPlatformResolutionHandler(File targetDir, WorkerPool workerPool, LinkMode linkMode,
+      BundleStore bundleStore) {
       this.platformDir = targetDir;
+      this.workerPool = workerPool;
+      this.linkMode = linkMode;
+      this.bundleStore = bundleStore;
+      for (int i = 0; i < locks.length; i++) {
+         locks[i] = new Object();
+      }
       featuresDir = new File(targetDir, "features");
       pluginsDir = new File(targetDir, "plugins");
    }
@@ -80,21 +106,40 @@ public class CopyTargetPlatformResolutionHandler
    }
 
    @Override
-   public void handleFeature(@NotNull String id, @NotNull String version, @NotNull File location,
+   public void handleFeature(@NotNull final String id, @NotNull final String version, @NotNull final File location,
       MavenProject mavenProject) {
       if (mavenProject == null) {
-         processFeature(id, version, location);
+         workerPool.execute(new Runnable() {
+            @Override
+            public void run() {
+               synchronized (getLock("feature:" + getVersionedid(id, version))) {
+                  processFeature(id, version, location);
+               }
+            }
+         });
       }
    }
 
    @Override
-   public void handlePlugin(@NotNull String id, @NotNull String version, @NotNull File location, boolean unpack,
-      MavenProject mavenProject) {
+   public void handlePlugin(@NotNull final String id, @NotNull final String version, @NotNull final File location,
+      final boolean unpack, MavenProject mavenProject) {
       if (mavenProject == null) {
-         processPlugin(id, version, location, unpack);
+         workerPool.execute(new Runnable() {
+            @Override
+            public void run() {
+               // the same plugin may be reported multiple times, so serialize the work on it
+               synchronized (getLock("plugin:" + getVersionedid(id, version))) {
+                  processPlugin(id, version, location, unpack);
+               }
+            }
+         });
       }
    }
 
+   private Object getLock(String key) {
+      return locks[(key.hashCode() & Integer.MAX_VALUE) % locks.length];
+   }
+
    private void processPlugin(String id, String version, File location, boolean unpack) {
       final File pluginDir = newPluginDir(id, version);
       final File pluginJar = newPluginJar(id, version);
@@ -103,24 +148,25 @@ public class CopyTargetPlatformResolutionHandler
          if (location.isFile()) {
             if (unpack) {
                if (pluginJar.exists()) {
-                  deleteFileOrDirectory(pluginJar);
+                  // may be a link into the local repository, which must stay untouched
+                  LinkMode.delete(pluginJar);
                }
                if (!pluginDir.exists()) {
-                  unpack(location, pluginDir);
+                  explode("plugins", id, version, location, pluginDir);
                }
             }
             else {
                if (!pluginJar.exists() && !pluginDir.exists()) {
-                  FileUtils.copyFile(location, pluginJar);
+                  placeJar("plugins", id, version, location, pluginJar);
                }
             }
          }
          else {
             if (pluginJar.exists()) {
-               deleteFileOrDirectory(pluginJar);
+               LinkMode.delete(pluginJar);
             }
             if (!pluginDir.exists()) {
-               FileUtils.copyDirectory(location, pluginDir);
+               placeDirectory("plugins", id, version, location, pluginDir);
             }
          }
       }
@@ -136,7 +182,7 @@ public class CopyTargetPlatformResolutionHandler
       }
 
       try {
-         unpack(location, featureDir);
+         explode("features", id, version, location, featureDir);
       }
       catch (IOException e) {
          throw Exceptions.pipe(e);
@@ -144,6 +190,39 @@ public class CopyTargetPlatformResolutionHandler
 
    }
 
+   private void explode(String type, String id, String version, File jarFile, File destDir) throws IOException {
+      if (bundleStore == null) {
+         unpack(jarFile, destDir);
+      }
+      else {
+         final File entry = bundleStore.getExploded(type, id, version, jarFile);
+         linkMode.linkDirectory(entry, destDir);
+         bundleStore.addReference(entry, destDir);
+      }
+   }
+
+   private void placeJar(String type, String id, String version, File jarFile, File destFile) throws IOException {
+      if (bundleStore == null) {
+         linkMode.linkFile(jarFile, destFile);
+      }
+      else {
+         final File entry = bundleStore.getJar(type, id, version, jarFile);
+         linkMode.linkFile(entry, destFile);
+         bundleStore.addReference(entry, destFile);
+      }
+   }
+
+   private void placeDirectory(String type, String id, String version, File dir, File destDir) throws IOException {
+      if (bundleStore == null) {
+         linkMode.linkDirectory(dir, destDir);
+      }
+      else {
+         final File entry = bundleStore.getDirectory(type, id, version, dir);
+         linkMode.linkDirectory(entry, destDir);
+         bundleStore.addReference(entry, destDir);
+      }
+   }
+
    private void unpack(File srcFile, final File destDir) throws IOException {
       final ZipProcessingRequest request = ZipProcessingRequest.newUnzipRequest(srcFile, destDir);
       new ZipProcessor().process(request);
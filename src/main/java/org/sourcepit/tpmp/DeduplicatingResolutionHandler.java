@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.maven.project.MavenProject;
+import org.sourcepit.tpmp.resolver.TargetPlatformResolutionHandler;
+
+/**
+ * Forwards each feature and plugin only once to the delegate, no matter how many projects require it. A plugin that was
+ * forwarded as jar is forwarded again if it is requested unpacked later on.
+ */
+public class DeduplicatingResolutionHandler implements TargetPlatformResolutionHandler {
+   private final TargetPlatformResolutionHandler delegate;
+
+   // versioned id to whether the bundle was forwarded unpacked
+   private final ConcurrentMap<String, Boolean> handled = new ConcurrentHashMap<String, Boolean>();
+
+   private final AtomicLong hits = new AtomicLong();
+
+   private final AtomicLong misses = new AtomicLong();
+
+   public DeduplicatingResolutionHandler(TargetPlatformResolutionHandler delegate) {
+      this.delegate = delegate;
+   }
+
+   public long getHits() {
+      return hits.get();
+   }
+
+   public long getMisses() {
+      return misses.get();
+   }
+
+   @Override
+   public void handleFeature(String id, String version, File location, MavenProject mavenProject) {
+      if (mavenProject != null || handled.putIfAbsent("feature:" + id + "_" + version, Boolean.TRUE) == null) {
+         count(mavenProject, misses);
+         delegate.handleFeature(id, version, location, mavenProject);
+      }
+      else {
+         count(mavenProject, hits);
+      }
+   }
+
+   @Override
+   public void handlePlugin(String id, String version, File location, boolean unpack, MavenProject mavenProject) {
+      if (mavenProject != null || markHandled("plugin:" + id + "_" + version, unpack, location)) {
+         count(mavenProject, misses);
+         delegate.handlePlugin(id, version, location, unpack, mavenProject);
+      }
+      else {
+         count(mavenProject, hits);
+      }
+   }
+
+   private boolean markHandled(String key, boolean unpack, File location) {
+      Boolean previous = handled.get(key);
+      if (previous != null && (previous.booleanValue() || !unpack)) {
+         // the common case, answered without touching the file system
+         return false;
+      }
+
+      final boolean unpacked = unpack || location.isDirectory();
+      if (previous == null) {
+         previous = handled.putIfAbsent(key, Boolean.valueOf(unpacked));
+         if (previous == null) {
+            return true;
+         }
+      }
+      // upgrade from jar to unpacked exactly once
+      return unpacked && !previous.booleanValue() && handled.replace(key, Boolean.FALSE, Boolean.TRUE);
+   }
+
+   private static void count(MavenProject mavenProject, AtomicLong counter) {
+      if (mavenProject == null) {
+         counter.incrementAndGet();
+      }
+   }
+}
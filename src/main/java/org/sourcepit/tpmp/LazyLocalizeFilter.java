@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * Accepts only the entries of a target platform archive that are missing or differ in the platform directory.
+ * Optionally, plugins whose <code>Eclipse-PlatformFilter</code> excludes the given target environment are skipped,
+ * unless they are requested explicitly. The entries that are present afterwards are recorded in an index, so that a
+ * later run can tell from the platform directory alone whether anything is missing.
+ */
+public class LazyLocalizeFilter implements ParallelUnzipper.EntryFilter {
+   private static final Pattern PLUGIN_PATH = Pattern.compile("^(?:[^/]+/)?plugins/([^/]+)");
+
+   private static final String INDEX_HEADER = "# tpmp localize index 1";
+
+   private final TargetEnvironment targetEnvironment;
+
+   private final Collection<String> requestedBundles;
+
+   private final Map<String, Boolean> pluginToMatch = new HashMap<String, Boolean>();
+
+   private final Map<String, Long> localizedEntries = new LinkedHashMap<String, Long>();
+
+   public LazyLocalizeFilter(TargetEnvironment targetEnvironment) {
+      this(targetEnvironment, Collections.<String> emptySet());
+   }
+
+   /**
+    * @param requestedBundles symbolic names of plugins that are extracted even if the target environment excludes
+    *           them
+    */
+   public LazyLocalizeFilter(TargetEnvironment targetEnvironment, Collection<String> requestedBundles) {
+      this.targetEnvironment = targetEnvironment;
+      this.requestedBundles = requestedBundles;
+   }
+
+   @Override
+   public boolean accept(ZipFile zip, ZipEntry entry, File file) throws IOException {
+      if (targetEnvironment != null) {
+         final Matcher matcher = PLUGIN_PATH.matcher(entry.getName());
+         if (matcher.find() && !isRequested(matcher.group(1)) && !matchesTargetEnvironment(zip, matcher.group())) {
+            return false;
+         }
+      }
+      localizedEntries.put(entry.getName(), Long.valueOf(entry.isDirectory() ? -1L : entry.getSize()));
+      return !isUpToDate(entry, file);
+   }
+
+   private boolean isRequested(String pluginName) {
+      for (String bundle : requestedBundles) {
+         if (pluginName.startsWith(bundle + "_")) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private static boolean isUpToDate(ZipEntry entry, File file) {
+      if (entry.isDirectory()) {
+         return file.isDirectory();
+      }
+      if (!file.isFile() || file.length() != entry.getSize()) {
+         return false;
+      }
+      if (Math.abs(file.lastModified() - entry.getTime()) < SimpleZipper.TIME_TOLERANCE) {
+         return true;
+      }
+      return SimpleZipper.crc32(file) == entry.getCrc();
+   }
+
+   private boolean matchesTargetEnvironment(ZipFile zip, String pluginPath) throws IOException {
+      Boolean match = pluginToMatch.get(pluginPath);
+      if (match == null) {
+         final Manifest manifest = readManifest(zip, pluginPath);
+         final String platformFilter = manifest == null ? null : manifest.getMainAttributes().getValue(
+            "Eclipse-PlatformFilter");
+         match = Boolean.valueOf(platformFilter == null || matches(platformFilter, targetEnvironment));
+         pluginToMatch.put(pluginPath, match);
+      }
+      return match.booleanValue();
+   }
+
+   /**
+    * Evaluates the given platform filter against the <code>osgi.os</code>, <code>osgi.ws</code> and
+    * <code>osgi.arch</code> of the target environment. Malformed filters are considered to match.
+    */
+   static boolean matches(String platformFilter, TargetEnvironment targetEnvironment) {
+      final Filter filter;
+      try {
+         filter = FrameworkUtil.createFilter(platformFilter);
+      }
+      catch (InvalidSyntaxException e) {
+         // better extract a bundle too much than to miss one
+         return true;
+      }
+      final Dictionary<String, Object> properties = new Hashtable<String, Object>();
+      properties.put("osgi.os", targetEnvironment.getOs());
+      properties.put("osgi.ws", targetEnvironment.getWs());
+      properties.put("osgi.arch", targetEnvironment.getArch());
+      return filter.match(properties);
+   }
+
+   /**
+    * Records the entries accepted or found up to date by this filter under the given key, which should describe the
+    * archive and the filter settings.
+    */
+   public void writeIndex(File indexFile, String key) throws IOException {
+      final File dir = indexFile.getParentFile();
+      if (!dir.mkdirs() && !dir.isDirectory()) {
+         throw new IOException("Unable to create directory " + dir);
+      }
+      final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexFile), "UTF-8"));
+      try {
+         writer.write(INDEX_HEADER);
+         writer.write('\n');
+         writer.write(key);
+         writer.write('\n');
+         for (Entry<String, Long> entry : localizedEntries.entrySet()) {
+            writer.write(entry.getValue().toString());
+            writer.write('\t');
+            writer.write(entry.getKey());
+            writer.write('\n');
+         }
+      }
+      finally {
+         writer.close();
+      }
+   }
+
+   /**
+    * Returns <code>true</code> if an index was recorded for the given key and all indexed entries are still present
+    * below the given directory with their original size. Only file attributes are checked, no content is read.
+    */
+   public static boolean isLocalized(File indexFile, String key, File parentDir) {
+      if (!indexFile.isFile()) {
+         return false;
+      }
+      BufferedReader reader = null;
+      try {
+         reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+         if (!INDEX_HEADER.equals(reader.readLine()) || !key.equals(reader.readLine())) {
+            return false;
+         }
+         for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            final int tab = line.indexOf('\t');
+            if (tab < 0) {
+               return false;
+            }
+            final long size = Long.parseLong(line.substring(0, tab));
+            final File file = new File(parentDir, line.substring(tab + 1));
+            if (size < 0 ? !file.isDirectory() : !file.isFile() || file.length() != size) {
+               return false;
+            }
+         }
+         return true;
+      }
+      catch (IOException e) {
+         return false;
+      }
+      catch (NumberFormatException e) {
+         return false;
+      }
+      finally {
+         IOUtils.closeQuietly(reader);
+      }
+   }
+
+   private static Manifest readManifest(ZipFile zip, String pluginPath) throws IOException {
+      if (pluginPath.endsWith(".jar")) {
+         final ZipEntry jarEntry = zip.getEntry(pluginPath);
+         if (jarEntry == null) {
+            return null;
+         }
+         final ZipInputStream jarIn = new ZipInputStream(zip.getInputStream(jarEntry));
+         try {
+            for (ZipEntry entry = jarIn.getNextEntry(); entry != null; entry = jarIn.getNextEntry()) {
+               if (JarFile.MANIFEST_NAME.equals(entry.getName())) {
+                  return new Manifest(jarIn);
+               }
+            }
+            return null;
+         }
+         finally {
+            IOUtils.closeQuietly(jarIn);
+         }
+      }
+
+      final ZipEntry manifestEntry = zip.getEntry(pluginPath + "/" + JarFile.MANIFEST_NAME);
+      if (manifestEntry == null) {
+         return null;
+      }
+      final InputStream in = zip.getInputStream(manifestEntry);
+      try {
+         return new Manifest(in);
+      }
+      finally {
+         IOUtils.closeQuietly(in);
+      }
+   }
+}
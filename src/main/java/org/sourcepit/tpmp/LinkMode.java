@@ -0,0 +1,248 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Determines how files that already exist on the local file system (e.g. in the local Maven repository or the p2
+ * bundle pool) are placed into a target platform. Each mode falls back to a plain copy if the file system doesn't
+ * support it.
+ */
+public enum LinkMode {
+   COPY, HARDLINK, SYMLINK, REFLINK;
+
+   private static final Logger LOGGER = LoggerFactory.getLogger(LinkMode.class);
+
+   // only GNU cp knows --reflink, other platforms copy right away
+   private static final AtomicBoolean REFLINK_AVAILABLE = new AtomicBoolean(System.getProperty("os.name", "")
+      .toLowerCase(Locale.ENGLISH).startsWith("linux"));
+
+   public static LinkMode parse(String value) {
+      try {
+         return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+      }
+      catch (IllegalArgumentException e) {
+         throw new IllegalArgumentException("Unknown link mode '" + value + "', expected one of "
+            + Arrays.toString(values()).toLowerCase(Locale.ENGLISH));
+      }
+   }
+
+   public void linkFile(File source, File target) throws IOException {
+      mkdirs(target.getParentFile());
+      switch (this) {
+         case HARDLINK :
+            if (hardlink(source.toPath(), target.toPath())) {
+               return;
+            }
+            break;
+         case SYMLINK :
+            if (symlink(source, target)) {
+               return;
+            }
+            break;
+         case REFLINK :
+            if (reflink(source, target, false)) {
+               return;
+            }
+            break;
+         default :
+            break;
+      }
+      FileUtils.copyFile(source, target);
+   }
+
+   public void linkDirectory(File source, File target) throws IOException {
+      mkdirs(target.getParentFile());
+      switch (this) {
+         case HARDLINK :
+            hardlinkTree(source.toPath(), target.toPath());
+            return;
+         case SYMLINK :
+            if (symlink(source, target)) {
+               return;
+            }
+            break;
+         case REFLINK :
+            if (reflink(source, target, true)) {
+               return;
+            }
+            break;
+         default :
+            break;
+      }
+      FileUtils.copyDirectory(source, target);
+   }
+
+   /**
+    * Deletes a file or directory that may have been placed by any of the link modes. Symbolic links are removed
+    * themselves, neither the directory they point to is entered nor are hard linked files modified.
+    */
+   public static void delete(File file) throws IOException {
+      final Path path = file.toPath();
+      if (Files.isSymbolicLink(path) || !Files.isDirectory(path)) {
+         Files.deleteIfExists(path);
+         return;
+      }
+      // the visitor doesn't follow symbolic links and reports them as plain files
+      Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+         @Override
+         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            Files.delete(file);
+            return FileVisitResult.CONTINUE;
+         }
+
+         @Override
+         public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+            if (e != null) {
+               throw e;
+            }
+            Files.delete(dir);
+            return FileVisitResult.CONTINUE;
+         }
+      });
+   }
+
+   /**
+    * Replaces a symbolic link by a private copy of the file or directory it points to, so that the copy can be
+    * modified without touching the link target. Does nothing if the given file is not a symbolic link.
+    */
+   public static void detach(File file) throws IOException {
+      final Path link = file.toPath();
+      if (!Files.isSymbolicLink(link)) {
+         return;
+      }
+      final File source = link.toRealPath().toFile();
+      final File tmp = new File(file.getPath() + ".detach");
+      delete(tmp);
+      if (source.isDirectory()) {
+         FileUtils.copyDirectory(source, tmp);
+      }
+      else {
+         FileUtils.copyFile(source, tmp);
+      }
+      Files.delete(link);
+      Files.move(tmp.toPath(), link);
+   }
+
+   private static void mkdirs(File dir) throws IOException {
+      if (dir != null && !dir.mkdirs() && !dir.isDirectory()) {
+         throw new IOException("Unable to create directory " + dir);
+      }
+   }
+
+   private static boolean hardlink(Path source, Path target) {
+      try {
+         Files.createLink(target, source);
+         return true;
+      }
+      catch (IOException e) {
+         // e.g. source and target are located on different file stores
+         return false;
+      }
+      catch (UnsupportedOperationException e) {
+         return false;
+      }
+   }
+
+   private static void hardlinkTree(final Path source, final Path target) throws IOException {
+      Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+         @Override
+         public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+            Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+            return FileVisitResult.CONTINUE;
+         }
+
+         @Override
+         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            final Path targetFile = target.resolve(source.relativize(file).toString());
+            if (!hardlink(file, targetFile)) {
+               FileUtils.copyFile(file.toFile(), targetFile.toFile());
+            }
+            return FileVisitResult.CONTINUE;
+         }
+      });
+   }
+
+   private static boolean symlink(File source, File target) {
+      try {
+         Files.createSymbolicLink(target.toPath(), source.getAbsoluteFile().toPath());
+         return true;
+      }
+      catch (IOException e) {
+         return false;
+      }
+      catch (UnsupportedOperationException e) {
+         return false;
+      }
+   }
+
+   private static boolean reflink(File source, File target, boolean recursive) throws IOException {
+      // there is no Java API for copy-on-write clones, so we delegate to GNU cp where available
+      if (!REFLINK_AVAILABLE.get()) {
+         return false;
+      }
+
+      final ProcessBuilder pb = recursive ? new ProcessBuilder("cp", "-R", "--reflink=always",
+         source.getAbsolutePath(), target.getAbsolutePath()) : new ProcessBuilder("cp", "--reflink=always",
+         source.getAbsolutePath(), target.getAbsolutePath());
+      pb.redirectErrorStream(true);
+
+      final int exitCode;
+      final byte[] output;
+      try {
+         final Process process = pb.start();
+         process.getOutputStream().close();
+         output = IOUtils.toByteArray(process.getInputStream());
+         exitCode = process.waitFor();
+      }
+      catch (IOException e) {
+         // no cp on the path, don't try again
+         REFLINK_AVAILABLE.set(false);
+         return false;
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException(e);
+      }
+
+      if (exitCode != 0) {
+         delete(target);
+         // most likely the file system doesn't support clones, so don't spawn a process per bundle in vain
+         if (REFLINK_AVAILABLE.compareAndSet(true, false)) {
+            LOGGER.warn("Reflinks are not supported here, copying files instead: "
+               + new String(output, Charset.defaultCharset()).trim());
+         }
+      }
+      return exitCode == 0;
+   }
+}
@@ -18,15 +18,17 @@ package org.sourcepit.tpmp;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.TreeSet;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.resolver.ArtifactResolutionRequest;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.sourcepit.common.utils.lang.Exceptions;
-import org.sourcepit.common.utils.zip.ZipProcessingRequest;
-import org.sourcepit.common.utils.zip.ZipProcessor;
 
 
 /**
@@ -34,6 +36,18 @@ import org.sourcepit.common.utils.zip.ZipProcessor;
  */
 @Mojo(name = "localize", requiresProject = true, aggregator = true)
 public class LocalizeTargetPlatformMojo extends AbstractTargetPlatformMojo {
+   @Parameter(property = "tpmp.lazyLocalize", defaultValue = "false")
+   private boolean lazyLocalize;
+
+   @Parameter(property = "tpmp.localizeEnvironment")
+   private String localizeEnvironment;
+
+   /**
+    * Comma separated symbolic names of plugins to extract in lazy mode even if the localize environment excludes them.
+    */
+   @Parameter(property = "tpmp.localizeBundles")
+   private String localizeBundles;
+
    @Override
    protected void doExecute() {
       final MavenProject project = getSession().getCurrentProject();
@@ -45,13 +59,57 @@ public class LocalizeTargetPlatformMojo extends AbstractTargetPlatformMojo {
 
    protected File downloadTargetPlatformOnDemand(MavenProject project) {
       final File platformDir = getPlatformDir(project);
-      if (!platformDir.exists() && getResolver().isRelyingOnCachedFiles()) {
-         download(getSession(), project, platformDir.getParentFile());
+      if (getResolver().isRelyingOnCachedFiles()) {
+         if (lazyLocalize) {
+            localizeLazily(getSession(), project, platformDir);
+         }
+         else if (!platformDir.exists()) {
+            final File platformZipFile = resolvePlatformArtifact(getSession(), project);
+            if (platformZipFile.exists()) {
+               new ParallelUnzipper(materializeThreads).unzip(platformZipFile, platformDir.getParentFile());
+            }
+         }
       }
       return platformDir;
    }
 
-   private void download(MavenSession session, MavenProject project, File parentDir) {
+   private void localizeLazily(MavenSession session, MavenProject project, File platformDir) {
+      final File indexFile = new File(platformDir, ".tpmp/localize.index");
+      final String key = getLocalizeKey(project);
+
+      // the index tells from the platform directory alone, so the archive isn't even resolved if nothing is missing
+      if (!session.getRequest().isUpdateSnapshots()
+         && LazyLocalizeFilter.isLocalized(indexFile, key, platformDir.getParentFile())) {
+         getLog().info("All entries of the target platform archive are present, skipping extraction.");
+         return;
+      }
+
+      final File platformZipFile = resolvePlatformArtifact(session, project);
+      if (platformZipFile.exists()) {
+         final LazyLocalizeFilter filter = new LazyLocalizeFilter(parseLocalizeEnvironment(),
+            parseLocalizeBundles());
+         new ParallelUnzipper(materializeThreads).unzip(platformZipFile, platformDir.getParentFile(), filter);
+         try {
+            filter.writeIndex(indexFile, key);
+         }
+         catch (IOException e) {
+            throw Exceptions.pipe(e);
+         }
+      }
+   }
+
+   private String getLocalizeKey(MavenProject project) {
+      final Artifact platformArtifact = createPlatformArtifact(project);
+      final StringBuilder sb = new StringBuilder();
+      sb.append(platformArtifact.getId());
+      sb.append('|');
+      sb.append(localizeEnvironment == null ? "" : localizeEnvironment.trim());
+      sb.append('|');
+      sb.append(new TreeSet<String>(parseLocalizeBundles()));
+      return sb.toString();
+   }
+
+   private File resolvePlatformArtifact(MavenSession session, MavenProject project) {
       final Artifact platformArtifact = createPlatformArtifact(project);
 
       final ArtifactResolutionRequest request = new ArtifactResolutionRequest();
@@ -65,15 +123,30 @@ public class LocalizeTargetPlatformMojo extends AbstractTargetPlatformMojo {
 
       repositorySystem.resolve(request);
 
-      if (platformArtifact.getFile().exists()) {
-         final ZipProcessingRequest unzipRequest = ZipProcessingRequest.newUnzipRequest(platformArtifact.getFile(),
-            parentDir);
-         try {
-            new ZipProcessor().process(unzipRequest);
-         }
-         catch (IOException e) {
-            throw Exceptions.pipe(e);
+      return platformArtifact.getFile();
+   }
+
+   private Collection<String> parseLocalizeBundles() {
+      final Collection<String> bundles = new LinkedHashSet<String>();
+      if (localizeBundles != null) {
+         for (String bundle : localizeBundles.split(",")) {
+            if (bundle.trim().length() > 0) {
+               bundles.add(bundle.trim());
+            }
          }
       }
+      return bundles;
+   }
+
+   private TargetEnvironment parseLocalizeEnvironment() {
+      if (localizeEnvironment == null || localizeEnvironment.trim().length() == 0) {
+         return null;
+      }
+      final String[] segments = localizeEnvironment.trim().split("/");
+      if (segments.length != 3) {
+         throw new IllegalArgumentException("Invalid localize environment '" + localizeEnvironment
+            + "', expected os/ws/arch");
+      }
+      return new TargetEnvironment(segments[0], segments[1], segments[2]);
    }
 }
@@ -45,6 +45,13 @@ public class MaterializeTargetPlatformMojo extends AbstractTargetPlatformMojo {
 
    @Parameter(property = "tpmp.deploy", defaultValue = "false")
    private boolean deploy;
+
+   @Parameter(property = "tpmp.streaming", defaultValue = "false")
+   private boolean streaming;
+
+   @Parameter(property = "tpmp.incrementalZip", defaultValue = "false")
+   private boolean incrementalZip;
+
    @Inject
    private ArtifactDeployer deployer;
 
@@ -58,10 +65,16 @@ public class MaterializeTargetPlatformMojo extends AbstractTargetPlatformMojo {
    protected void doExecute() {
       final MavenProject project = getSession().getCurrentProject();
 
-      final File platformDir = getPlatformDir(project);
-      updateTargetPlatform(project, platformDir);
-
-      final File platformZipFile = zip(project, platformDir);
+      final File platformZipFile;
+      if (streaming) {
+         platformZipFile = getPlatformZipFile(project);
+         streamTargetPlatform(project, platformZipFile);
+      }
+      else {
+         final File platformDir = getPlatformDir(project);
+         updateTargetPlatform(project, platformDir);
+         platformZipFile = zip(project, platformDir);
+      }
 
       final Artifact platformArtifact = createPlatformArtifact(project);
       platformArtifact.setFile(platformZipFile);
@@ -75,7 +88,7 @@ public class MaterializeTargetPlatformMojo extends AbstractTargetPlatformMojo {
 
    private File zip(final MavenProject project, final File platformDir) {
       final File platformZipFile = getPlatformZipFile(project);
-      new SimpleZipper().zip(platformDir, platformZipFile, getClassifiedName(project));
+      new SimpleZipper(materializeThreads, incrementalZip).zip(platformDir, platformZipFile, getClassifiedName(project));
       return platformZipFile;
    }
 
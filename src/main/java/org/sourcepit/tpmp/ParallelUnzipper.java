@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.sourcepit.common.utils.lang.Exceptions;
+
+/**
+ * Extracts an archive with multiple threads. The central directory is read once, afterwards the entries are inflated
+ * concurrently.
+ */
+public class ParallelUnzipper {
+   public interface EntryFilter {
+      boolean accept(ZipFile zip, ZipEntry entry, File file) throws IOException;
+   }
+
+   private static final EntryFilter ALL = new EntryFilter() {
+      @Override
+      public boolean accept(ZipFile zip, ZipEntry entry, File file) {
+         return true;
+      }
+   };
+
+   private final int threads;
+
+   public ParallelUnzipper(int threads) {
+      this.threads = threads;
+   }
+
+   public void unzip(File zipFile, File destDir) {
+      unzip(zipFile, destDir, ALL);
+   }
+
+   /**
+    * Extracts only the entries that are accepted by the given filter. The filter is invoked by the calling thread.
+    */
+   public void unzip(File zipFile, File destDir, EntryFilter filter) {
+      final WorkerPool workerPool = new WorkerPool("unzip", threads);
+      ZipFile zip = null;
+      try {
+         // java.util.zip.ZipFile maps the central directory and supports concurrent reads of its entries
+         zip = new ZipFile(zipFile);
+
+         final List<ZipEntry> fileEntries = new ArrayList<ZipEntry>();
+         final Set<Path> checkedDirs = new HashSet<Path>();
+
+         // create all directories up front so that the workers don't race for them
+         final Path destPath = destDir.getAbsoluteFile().toPath().normalize();
+         final Enumeration<? extends ZipEntry> entries = zip.entries();
+         while (entries.hasMoreElements()) {
+            final ZipEntry entry = entries.nextElement();
+            final File file = getFile(destPath, entry);
+            if (!filter.accept(zip, entry, file)) {
+               continue;
+            }
+            // the platform may link into the local repository, don't extract into it
+            detachLinkedDirs(destPath, entry.isDirectory() ? file.toPath() : file.toPath().getParent(), checkedDirs);
+            if (entry.isDirectory()) {
+               mkdirs(file);
+            }
+            else {
+               mkdirs(file.getParentFile());
+               fileEntries.add(entry);
+            }
+         }
+
+         final ZipFile finalZip = zip;
+         for (final ZipEntry entry : fileEntries) {
+            workerPool.execute(new Runnable() {
+               @Override
+               public void run() {
+                  try {
+                     extract(finalZip, entry, getFile(destPath, entry));
+                  }
+                  catch (IOException e) {
+                     throw Exceptions.pipe(e);
+                  }
+               }
+            });
+         }
+         workerPool.join();
+      }
+      catch (IOException e) {
+         throw Exceptions.pipe(e);
+      }
+      finally {
+         workerPool.shutdown();
+         IOUtils.closeQuietly(zip);
+      }
+   }
+
+   private static File getFile(Path destPath, ZipEntry entry) throws IOException {
+      final Path path = destPath.resolve(entry.getName()).normalize();
+      if (!path.startsWith(destPath)) {
+         throw new IOException("Entry " + entry.getName() + " is outside of the target directory " + destPath);
+      }
+      return path.toFile();
+   }
+
+   private static void detachLinkedDirs(Path destPath, Path dir, Set<Path> checkedDirs) throws IOException {
+      if (dir.equals(destPath)) {
+         return;
+      }
+      Path current = destPath;
+      for (Path name : destPath.relativize(dir)) {
+         current = current.resolve(name);
+         if (checkedDirs.add(current) && Files.isSymbolicLink(current)) {
+            LinkMode.detach(current.toFile());
+         }
+      }
+   }
+
+   private static void mkdirs(File dir) throws IOException {
+      if (!dir.mkdirs() && !dir.isDirectory()) {
+         throw new IOException("Unable to create directory " + dir);
+      }
+   }
+
+   private static void extract(ZipFile zip, ZipEntry entry, File file) throws IOException {
+      // writing into a hard or symbolic link would modify the file it shares its content with
+      Files.deleteIfExists(file.toPath());
+
+      final InputStream in = zip.getInputStream(entry);
+      try {
+         final FileOutputStream out = new FileOutputStream(file);
+         try {
+            if (entry.getMethod() == ZipEntry.STORED) {
+               transfer(Channels.newChannel(in), out.getChannel(), entry.getSize());
+            }
+            else {
+               IOUtils.copy(in, out);
+            }
+         }
+         finally {
+            out.close();
+         }
+      }
+      finally {
+         in.close();
+      }
+      if (entry.getTime() > -1) {
+         file.setLastModified(entry.getTime());
+      }
+   }
+
+   private static void transfer(ReadableByteChannel in, FileChannel out, long size) throws IOException {
+      // stored entries are mostly bundle jars, let the channel move them in large chunks
+      long position = 0;
+      while (position < size) {
+         final long transferred = out.transferFrom(in, position, size - position);
+         if (transferred <= 0) {
+            throw new IOException("Unexpected end of stored entry");
+         }
+         position += transferred;
+      }
+   }
+}
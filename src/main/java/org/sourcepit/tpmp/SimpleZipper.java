@@ -16,67 +16,313 @@
 
 package org.sourcepit.tpmp;
 
-import static org.sourcepit.common.utils.io.IO.buffIn;
-import static org.sourcepit.common.utils.io.IO.fileIn;
-import static org.sourcepit.common.utils.io.IO.fileOut;
-import static org.sourcepit.common.utils.io.IO.zipOut;
-
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.sourcepit.common.utils.file.FileVisitor;
-import org.sourcepit.common.utils.io.IOOperation;
 import org.sourcepit.common.utils.lang.Exceptions;
 import org.sourcepit.common.utils.path.PathUtils;
 
+/**
+ * Zips a target platform directory. Entries are written in the order of the directory walk. With more than one
+ * thread, small entries are deflated ahead on a worker pool and copied raw into the archive, everything else is
+ * streamed straight into it.
+ */
 public class SimpleZipper {
+   private static final String[] COMPRESSED_EXTENSIONS = { ".jar", ".zip", ".war", ".gz" };
+
+   // DOS timestamps stored in zip entries only have a two second resolution
+   static final long TIME_TOLERANCE = 2000;
+
+   // larger files are deflated while streaming, so that deflating ahead keeps memory usage low
+   private static final long MAX_DEFLATE_AHEAD_SIZE = 1024 * 1024;
+
+   private final int threads;
+
+   private final boolean incremental;
+
+   public SimpleZipper() {
+      this(1);
+   }
+
+   public SimpleZipper(int threads) {
+      this(threads, false);
+   }
+
+   public SimpleZipper(int threads, boolean incremental) {
+      this.threads = Math.max(1, threads);
+      this.incremental = incremental;
+   }
+
    public void zip(final File platformDir, File platformZipFile, final String pathPrefix) {
-      new IOOperation<ZipOutputStream>(zipOut(fileOut(platformZipFile, true))) {
+      final ZipFile previousZip = incremental ? openPreviousZip(platformZipFile) : null;
+
+      final List<String> paths = new ArrayList<String>();
+      final List<File> files = new ArrayList<File>();
+      org.sourcepit.common.utils.file.FileUtils.accept(platformDir, new FileVisitor() {
          @Override
-         protected void run(final ZipOutputStream zipOut) throws IOException {
-            org.sourcepit.common.utils.file.FileUtils.accept(platformDir, new FileVisitor() {
-               @Override
-               public boolean visit(File file) {
-                  if (!file.equals(platformDir)) {
-                     try {
-                        String path = PathUtils.getRelativePath(file, platformDir, "/");
-                        if (pathPrefix != null) {
-                           path = pathPrefix + "/" + path;
-                        }
-                        pack(zipOut, file, path);
-                     }
-                     catch (IOException e) {
-                        throw Exceptions.pipe(e);
-                     }
-                  }
-                  return true;
+         public boolean visit(File file) {
+            if (!file.equals(platformDir)) {
+               String path = PathUtils.getRelativePath(file, platformDir, "/");
+               if (pathPrefix != null) {
+                  path = pathPrefix + "/" + path;
                }
+               paths.add(path);
+               files.add(file);
+            }
+            return true;
+         }
+      });
 
-               private void pack(final ZipOutputStream zipOut, File file, final String path) throws IOException {
-                  if (file.isDirectory()) {
-                     ZipEntry entry = new ZipEntry(path + "/");
-                     zipOut.putNextEntry(entry);
-                     zipOut.closeEntry();
-                  }
-                  else {
-                     ZipEntry entry = new ZipEntry(path);
-                     entry.setSize(file.length());
-                     zipOut.putNextEntry(entry);
-                     new IOOperation<InputStream>(buffIn(fileIn(file))) {
-                        @Override
-                        protected void run(InputStream openFile) throws IOException {
-                           IOUtils.copy(openFile, zipOut);
-                        }
-                     }.run();
-                     zipOut.closeEntry();
-                  }
-               }
-            });
+      // the previous archive is read while the new one is written, so the new one must not replace it before the end
+      final File zipFile = previousZip == null ? platformZipFile : new File(platformZipFile.getPath() + ".tmp");
+
+      final ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads,
+         WorkerPool.newThreadFactory("zip")) : null;
+      ZipArchiveOutputStream zipOut = null;
+      try {
+         platformZipFile.getParentFile().mkdirs();
+         zipOut = new ZipArchiveOutputStream(zipFile);
+         zipOut.setUseZip64(Zip64Mode.AsNeeded);
+
+         final List<Future<DeflatedEntry>> deflated = new ArrayList<Future<DeflatedEntry>>(files.size());
+         final int window = threads * 4;
+         for (int i = 0; i < files.size(); i++) {
+            // keep the workers busy with the entries ahead, but only a few of them
+            while (executor != null && deflated.size() < Math.min(files.size(), i + window)) {
+               deflated.add(deflateAhead(executor, previousZip, paths.get(deflated.size()),
+                  files.get(deflated.size())));
+            }
+
+            final String path = paths.get(i);
+            final File file = files.get(i);
+            final ZipArchiveEntry previousEntry = previousZip == null ? null : previousZip.getEntry(path);
+            if (previousEntry != null && isUnchanged(previousEntry, file)) {
+               copyRawEntry(previousZip, previousEntry, zipOut);
+            }
+            else if (executor != null && deflated.get(i) != null) {
+               writeDeflatedEntry(zipOut, path, file, deflated.get(i).get());
+            }
+            else {
+               writeEntry(zipOut, path, file);
+            }
+            if (executor != null) {
+               deflated.set(i, null);
+            }
+         }
+
+         zipOut.finish();
+         zipOut.close();
+
+         if (previousZip != null) {
+            previousZip.close();
+            Files.move(zipFile.toPath(), platformZipFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+         }
+      }
+      catch (IOException e) {
+         throw Exceptions.pipe(e);
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw Exceptions.pipe(e);
+      }
+      catch (ExecutionException e) {
+         final Throwable cause = e.getCause();
+         if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
          }
-      }.run();
+         if (cause instanceof Error) {
+            throw (Error) cause;
+         }
+         throw Exceptions.pipe((Exception) cause);
+      }
+      finally {
+         if (executor != null) {
+            executor.shutdownNow();
+         }
+         IOUtils.closeQuietly(zipOut);
+         ZipFile.closeQuietly(previousZip);
+      }
+   }
+
+   private static Future<DeflatedEntry> deflateAhead(ExecutorService executor, ZipFile previousZip, String path,
+      final File file) {
+      if (!file.isFile() || isCompressed(path) || file.length() > MAX_DEFLATE_AHEAD_SIZE) {
+         return null;
+      }
+      final ZipArchiveEntry previousEntry = previousZip == null ? null : previousZip.getEntry(path);
+      if (previousEntry != null && previousEntry.getSize() == file.length()
+         && Math.abs(previousEntry.getTime() - file.lastModified()) < TIME_TOLERANCE) {
+         // will be copied raw
+         return null;
+      }
+      return executor.submit(new Callable<DeflatedEntry>() {
+         @Override
+         public DeflatedEntry call() throws IOException {
+            return deflate(file);
+         }
+      });
+   }
+
+   private static ZipFile openPreviousZip(File platformZipFile) {
+      if (platformZipFile.isFile()) {
+         try {
+            return new ZipFile(platformZipFile);
+         }
+         catch (IOException e) {
+            // corrupt or truncated, e.g. by an aborted build, so start from scratch
+            return null;
+         }
+      }
+      return null;
+   }
+
+   private static boolean isUnchanged(ZipArchiveEntry previousEntry, File file) {
+      if (previousEntry.isDirectory() || !file.isFile() || previousEntry.getSize() != file.length()) {
+         return false;
+      }
+      if (Math.abs(previousEntry.getTime() - file.lastModified()) < TIME_TOLERANCE) {
+         return true;
+      }
+      // touched, e.g. by a re-materialization, but maybe not modified
+      return previousEntry.getCrc() == crc32(file);
+   }
+
+   static long crc32(File file) {
+      final CRC32 crc = new CRC32();
+      final byte[] buffer = new byte[64 * 1024];
+      InputStream in = null;
+      try {
+         in = new FileInputStream(file);
+         int n = in.read(buffer);
+         while (n > -1) {
+            crc.update(buffer, 0, n);
+            n = in.read(buffer);
+         }
+      }
+      catch (IOException e) {
+         throw Exceptions.pipe(e);
+      }
+      finally {
+         IOUtils.closeQuietly(in);
+      }
+      return crc.getValue();
+   }
+
+   private static void copyRawEntry(ZipFile previousZip, ZipArchiveEntry entry, ZipArchiveOutputStream zipOut)
+      throws IOException {
+      final InputStream in = previousZip.getRawInputStream(entry);
+      try {
+         zipOut.addRawArchiveEntry(entry, in);
+      }
+      finally {
+         IOUtils.closeQuietly(in);
+      }
+   }
+
+   private static void writeEntry(ZipArchiveOutputStream zipOut, String path, File file) throws IOException {
+      if (file.isDirectory()) {
+         final ZipArchiveEntry entry = new ZipArchiveEntry(path + "/");
+         entry.setMethod(ZipEntry.STORED);
+         entry.setTime(file.lastModified());
+         zipOut.putArchiveEntry(entry);
+         zipOut.closeArchiveEntry();
+      }
+      else {
+         final ZipArchiveEntry entry = new ZipArchiveEntry(path);
+         // re-deflating already compressed content costs a lot of time and gains nothing
+         entry.setMethod(isCompressed(path) ? ZipEntry.STORED : ZipEntry.DEFLATED);
+         entry.setTime(file.lastModified());
+         zipOut.putArchiveEntry(entry);
+         final InputStream in = new FileInputStream(file);
+         try {
+            IOUtils.copy(in, zipOut);
+         }
+         finally {
+            IOUtils.closeQuietly(in);
+         }
+         zipOut.closeArchiveEntry();
+      }
+   }
+
+   private static void writeDeflatedEntry(ZipArchiveOutputStream zipOut, String path, File file,
+      DeflatedEntry deflated) throws IOException {
+      final ZipArchiveEntry entry = new ZipArchiveEntry(path);
+      entry.setMethod(ZipEntry.DEFLATED);
+      entry.setTime(file.lastModified());
+      entry.setSize(deflated.size);
+      entry.setCompressedSize(deflated.data.length);
+      entry.setCrc(deflated.crc);
+      zipOut.addRawArchiveEntry(entry, new ByteArrayInputStream(deflated.data));
+   }
+
+   private static DeflatedEntry deflate(File file) throws IOException {
+      final byte[] content = FileUtils.readFileToByteArray(file);
+
+      final CRC32 crc = new CRC32();
+      crc.update(content);
+
+      // raw deflate without zlib header, like the zip output stream does
+      final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      try {
+         final ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2 + 64);
+         deflater.setInput(content);
+         deflater.finish();
+         final byte[] buffer = new byte[8 * 1024];
+         while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+         }
+         return new DeflatedEntry(out.toByteArray(), content.length, crc.getValue());
+      }
+      finally {
+         deflater.end();
+      }
+   }
+
+   static boolean isCompressed(String path) {
+      final String lowerCasePath = path.toLowerCase(Locale.ENGLISH);
+      for (String extension : COMPRESSED_EXTENSIONS) {
+         if (lowerCasePath.endsWith(extension)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private static class DeflatedEntry {
+      final byte[] data;
+
+      final long size;
+
+      final long crc;
+
+      DeflatedEntry(byte[] data, long size, long crc) {
+         this.data = data;
+         this.size = size;
+         this.crc = crc;
+      }
    }
 }
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.graph.DefaultProjectDependencyGraph;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.DefaultProjectBuildingRequest;
+import org.apache.maven.project.DuplicateProjectException;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.ProjectBuilder;
+import org.apache.maven.project.ProjectBuildingException;
+import org.apache.maven.project.ProjectBuildingRequest;
+import org.apache.maven.project.ProjectBuildingResult;
+import org.codehaus.plexus.util.dag.CycleDetectedException;
+import org.sourcepit.common.utils.lang.Exceptions;
+import org.sourcepit.tpmp.change.TargetPlatformConfigurationFilesDiscoverer;
+import org.sourcepit.tpmp.resolver.ProjectTargetPlatformResolver;
+import org.sourcepit.tpmp.resolver.TargetPlatformConfigurationHandler;
+import org.sourcepit.tpmp.resolver.TargetPlatformResolutionHandler;
+import org.sourcepit.tpmp.resolver.TargetPlatformResolutionOptions;
+import org.sourcepit.tpmp.resolver.TargetPlatformResolver;
+import org.sourcepit.tpmp.resolver.tycho.MavenProjectFacade;
+
+/**
+ * Materializes the target platform and keeps it up to date while the configuration files of the reactor projects
+ * change. Only the changed projects are resolved again, independent of the resolution strategy, and bundles are only
+ * ever added to the platform. Changes of a pom reload the reactor, which also picks up new modules.
+ * 
+ * @author Bernd Vogt <bernd.vogt@sourcepit.org>
+ */
+@Mojo(name = "watch", requiresProject = true, aggregator = true)
+public class WatchTargetPlatformMojo extends LocalizeTargetPlatformMojo {
+   @Parameter(property = "tpmp.watchDebounceMillis", defaultValue = "500")
+   private long debounceMillis;
+
+   @Inject
+   private Map<String, TargetPlatformConfigurationFilesDiscoverer> configFilesDiscovererMap;
+
+   @Inject
+   private MavenProjectFacade projectFacade;
+
+   @Inject
+   private ProjectTargetPlatformResolver tpResolver;
+
+   @Inject
+   private ProjectBuilder projectBuilder;
+
+   @Override
+   protected void doExecute() {
+      super.doExecute();
+
+      Map<Path, Set<MavenProject>> fileToProjects = getConfigurationFiles();
+
+      WatchService watchService = null;
+      try {
+         watchService = FileSystems.getDefault().newWatchService();
+
+         final Set<Path> watchedDirs = new HashSet<Path>();
+         watchDirs(watchService, watchedDirs, fileToProjects.keySet());
+
+         getLog().info("Watching " + fileToProjects.size() + " configuration files for changes, press Ctrl+C to stop.");
+
+         while (true) {
+            final Set<Path> changedFiles = awaitChanges(watchService, fileToProjects.keySet());
+
+            // files may have been created that are configuration files now, e.g. a new category.xml
+            final Map<Path, Set<MavenProject>> oldFileToProjects = fileToProjects;
+            fileToProjects = getConfigurationFiles();
+
+            final Set<MavenProject> changedProjects = new LinkedHashSet<MavenProject>();
+            boolean pomChanged = false;
+            for (Path file : changedFiles) {
+               if (oldFileToProjects.containsKey(file) || fileToProjects.containsKey(file)) {
+                  getLog().info("Detected change of " + file);
+                  pomChanged |= isPom(file);
+                  addProjects(changedProjects, oldFileToProjects.get(file));
+                  addProjects(changedProjects, fileToProjects.get(file));
+               }
+            }
+            if (changedProjects.isEmpty()) {
+               continue;
+            }
+
+            if (pomChanged) {
+               final Set<File> oldPoms = getPomFiles(getSession().getProjects());
+               if (!reloadProjects()) {
+                  continue;
+               }
+               fileToProjects = getConfigurationFiles();
+
+               // the reactor consists of new project instances now, so map the changes onto them
+               final Set<File> changedPoms = getPomFiles(changedProjects);
+               changedProjects.clear();
+               for (MavenProject project : getSession().getProjects()) {
+                  final File pom = project.getFile().getAbsoluteFile();
+                  if (changedPoms.contains(pom) || !oldPoms.contains(pom)) {
+                     changedProjects.add(project);
+                  }
+               }
+            }
+            else {
+               refreshProjects(changedProjects);
+            }
+
+            watchDirs(watchService, watchedDirs, fileToProjects.keySet());
+
+            try {
+               final MavenProject project = getSession().getCurrentProject();
+               updateTargetPlatform(project, getPlatformDir(project), new ChangedProjectsResolver(changedProjects));
+               getLog().info("Target platform updated, watching for further changes.");
+            }
+            catch (RuntimeException e) {
+               getLog().error("Failed to update target platform, watching for further changes.", e);
+            }
+         }
+      }
+      catch (IOException e) {
+         throw Exceptions.pipe(e);
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      finally {
+         IOUtils.closeQuietly(watchService);
+      }
+   }
+
+   private static void watchDirs(WatchService watchService, Set<Path> watchedDirs, Collection<Path> files)
+      throws IOException {
+      for (Path file : files) {
+         final Path dir = file.getParent();
+         if (watchedDirs.add(dir)) {
+            dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+         }
+      }
+   }
+
+   private Set<Path> awaitChanges(WatchService watchService, Set<Path> knownFiles) throws InterruptedException {
+      final Set<Path> changedFiles = new LinkedHashSet<Path>();
+
+      WatchKey key = watchService.take();
+      while (key != null) {
+         final Path dir = (Path) key.watchable();
+         for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+               // events were lost, so everything may have changed
+               changedFiles.addAll(knownFiles);
+            }
+            else {
+               changedFiles.add(dir.resolve((Path) event.context()));
+            }
+         }
+         key.reset();
+
+         // editors tend to write a file several times in a row, so wait until things settle down
+         key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+      }
+
+      return changedFiles;
+   }
+
+   private void refreshProjects(Set<MavenProject> projects) {
+      for (MavenProject project : projects) {
+         // let Tycho re-read the manifests and feature descriptors of the project
+         if (projectFacade.getTychoProject(project) != null && !projectFacade.refreshProject(getSession(), project)) {
+            getLog().warn(
+               "Unable to clear Tycho's manifest cache, restart the goal to apply manifest changes of "
+                  + project.getId());
+         }
+      }
+   }
+
+   private boolean reloadProjects() {
+      final MavenSession session = getSession();
+
+      final ProjectBuildingRequest request = new DefaultProjectBuildingRequest(session.getProjectBuildingRequest());
+      request.setResolveDependencies(false);
+
+      // building the top level pom recursively picks up new modules, unless only some projects were selected
+      final List<File> pomFiles = new ArrayList<File>();
+      final boolean recursive = session.getRequest().getSelectedProjects().isEmpty()
+         && session.getRequest().getPom() != null;
+      if (recursive) {
+         pomFiles.add(session.getRequest().getPom());
+      }
+      else {
+         pomFiles.addAll(getPomFiles(session.getProjects()));
+      }
+
+      final List<MavenProject> projects = new ArrayList<MavenProject>();
+      try {
+         for (ProjectBuildingResult result : projectBuilder.build(pomFiles, recursive, request)) {
+            projects.add(result.getProject());
+         }
+      }
+      catch (ProjectBuildingException e) {
+         getLog().error("Failed to reload the Maven model, watching for further changes.", e);
+         return false;
+      }
+
+      final DefaultProjectDependencyGraph dependencyGraph;
+      try {
+         dependencyGraph = new DefaultProjectDependencyGraph(projects);
+      }
+      catch (CycleDetectedException e) {
+         getLog().error("Failed to reload the Maven model, watching for further changes.", e);
+         return false;
+      }
+      catch (DuplicateProjectException e) {
+         getLog().error("Failed to reload the Maven model, watching for further changes.", e);
+         return false;
+      }
+
+      final File currentPom = session.getCurrentProject().getFile().getAbsoluteFile();
+      final List<MavenProject> sortedProjects = dependencyGraph.getSortedProjects();
+      for (MavenProject project : sortedProjects) {
+         if (currentPom.equals(project.getFile().getAbsoluteFile())) {
+            project.setExecutionRoot(true);
+            session.setCurrentProject(project);
+         }
+      }
+      session.setProjects(sortedProjects);
+      session.setProjectDependencyGraph(dependencyGraph);
+
+      // new project instances, so Tycho has to set up all of them
+      refreshProjects(new LinkedHashSet<MavenProject>(sortedProjects));
+
+      getLog().info("Reloaded the Maven model, the reactor consists of " + sortedProjects.size() + " projects.");
+      return true;
+   }
+
+   private static boolean isPom(Path file) {
+      return "pom.xml".equals(file.getFileName().toString());
+   }
+
+   private static void addProjects(Set<MavenProject> projects, Set<MavenProject> toAdd) {
+      if (toAdd != null) {
+         projects.addAll(toAdd);
+      }
+   }
+
+   private static Set<File> getPomFiles(Collection<MavenProject> projects) {
+      final Set<File> pomFiles = new LinkedHashSet<File>();
+      for (MavenProject project : projects) {
+         pomFiles.add(project.getFile().getAbsoluteFile());
+      }
+      return pomFiles;
+   }
+
+   private Map<Path, Set<MavenProject>> getConfigurationFiles() {
+      final Map<Path, Set<MavenProject>> fileToProjects = new LinkedHashMap<Path, Set<MavenProject>>();
+      for (MavenProject project : getSession().getProjects()) {
+         // changes of a parent affect all of its children
+         MavenProject current = project;
+         while (current != null) {
+            final TargetPlatformConfigurationFilesDiscoverer discoverer = configFilesDiscovererMap.get(ToolUtils
+               .getTool(getSession(), current));
+            if (discoverer != null) {
+               for (File file : discoverer.getTargetPlatformConfigurationFiles(getSession(), current)) {
+                  if (file.getParentFile() != null && file.getParentFile().isDirectory()) {
+                     final Path path = file.getAbsoluteFile().toPath().normalize();
+                     Set<MavenProject> projects = fileToProjects.get(path);
+                     if (projects == null) {
+                        projects = new LinkedHashSet<MavenProject>();
+                        fileToProjects.put(path, projects);
+                     }
+                     projects.add(project);
+                  }
+               }
+            }
+            current = current.getParent();
+         }
+      }
+      return fileToProjects;
+   }
+
+   /**
+    * Collects the configuration of all projects, as the definitions are written for all target environments, but
+    * resolves only the changed projects into the platform.
+    */
+   private final class ChangedProjectsResolver implements TargetPlatformResolver {
+      private final Set<MavenProject> changedProjects;
+
+      ChangedProjectsResolver(Set<MavenProject> changedProjects) {
+         this.changedProjects = changedProjects;
+      }
+
+      @Override
+      public boolean isRelyingOnCachedFiles() {
+         return true;
+      }
+
+      @Override
+      public void resolve(MavenSession session, File platformDir, TargetPlatformResolutionOptions options,
+         TargetPlatformConfigurationHandler configHandler, TargetPlatformResolutionHandler resolutionHandler) {
+         for (MavenProject project : session.getProjects()) {
+            tpResolver.resolveTargetPlatformConfiguration(session, project, configHandler);
+         }
+         // reactor order, the projects of the session are sorted
+         for (MavenProject project : session.getProjects()) {
+            if (changedProjects.contains(project)) {
+               getLog().info("Materializing target platform of project " + project.getId());
+               tpResolver.resolveTargetPlatform(session, project, options.isIncludeSource(), resolutionHandler);
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sourcepit.common.utils.lang.Exceptions;
+
+/**
+ * A bounded pool of worker threads. Tasks are queued up to a small multiple of the thread count, if the queue is full
+ * the submitting thread runs the task itself. A pool with a single thread doesn't spawn any threads at all but runs
+ * each task directly on the submitting thread.
+ */
+public class WorkerPool {
+   private final ExecutorService executor;
+
+   // only the number of unfinished tasks and the first failure are kept, not the tasks themselves
+   private final Object monitor = new Object();
+
+   private int pending;
+
+   private Throwable failure;
+
+   public WorkerPool(String name, int threads) {
+      executor = threads > 1 ? newExecutor(name, threads) : null;
+   }
+
+   private static ExecutorService newExecutor(String name, int threads) {
+      return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+         threads * 4), newThreadFactory(name), new ThreadPoolExecutor.CallerRunsPolicy());
+   }
+
+   static ThreadFactory newThreadFactory(final String name) {
+      return new ThreadFactory() {
+         private final AtomicInteger count = new AtomicInteger();
+
+         @Override
+         public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "tpmp-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      };
+   }
+
+   public void execute(final Runnable task) {
+      if (executor == null) {
+         task.run();
+      }
+      else {
+         synchronized (monitor) {
+            pending++;
+         }
+         try {
+            executor.execute(new Runnable() {
+               @Override
+               public void run() {
+                  Throwable t = null;
+                  try {
+                     task.run();
+                  }
+                  catch (RuntimeException e) {
+                     t = e;
+                  }
+                  catch (Error e) {
+                     t = e;
+                  }
+                  finally {
+                     done(t);
+                  }
+               }
+            });
+         }
+         catch (RejectedExecutionException e) {
+            done(null);
+            throw e;
+         }
+      }
+   }
+
+   private void done(Throwable t) {
+      synchronized (monitor) {
+         if (failure == null) {
+            failure = t;
+         }
+         pending--;
+         monitor.notifyAll();
+      }
+   }
+
+   /**
+    * Waits until all tasks submitted so far are done. If one or more tasks failed, the failure of the first one is
+    * re-thrown after all other tasks have finished.
+    */
+   public void join() {
+      final Throwable failure;
+      synchronized (monitor) {
+         while (pending > 0) {
+            try {
+               monitor.wait();
+            }
+            catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               shutdown();
+               throw Exceptions.pipe(e);
+            }
+         }
+         failure = this.failure;
+         this.failure = null;
+      }
+
+      if (failure instanceof RuntimeException) {
+         throw (RuntimeException) failure;
+      }
+      if (failure instanceof Error) {
+         throw (Error) failure;
+      }
+   }
+
+   public void shutdown() {
+      if (executor != null) {
+         // tasks that never started won't report back on their own
+         for (int i = executor.shutdownNow().size(); i > 0; i--) {
+            done(null);
+         }
+      }
+   }
+}
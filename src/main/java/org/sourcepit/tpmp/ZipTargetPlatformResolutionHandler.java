@@ -0,0 +1,304 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.project.MavenProject;
+import org.sourcepit.common.constraints.NotNull;
+import org.sourcepit.common.utils.lang.Exceptions;
+import org.sourcepit.tpmp.resolver.TargetPlatformConfigurationHandler;
+import org.sourcepit.tpmp.resolver.TargetPlatformResolutionHandler;
+
+/**
+ * Writes features and plugins straight into the target platform archive, without materializing them into a platform
+ * directory first. Features are written while they are resolved, plugins on {@link #close()} as a plugin requested as
+ * jar may still be requested unpacked later on.
+ */
+public class ZipTargetPlatformResolutionHandler
+   implements
+      TargetPlatformResolutionHandler,
+      TargetPlatformConfigurationHandler {
+   private final Collection<String> executionEnvironments = new LinkedHashSet<String>();
+   private final Collection<TargetEnvironment> targetEnvironments = new LinkedHashSet<TargetEnvironment>();
+
+   private final Set<String> entryNames = new HashSet<String>();
+
+   private final Map<String, PluginEntry> plugins = new LinkedHashMap<String, PluginEntry>();
+
+   private final File platformZipFile;
+
+   private final String pathPrefix;
+
+   private final ZipArchiveOutputStream zipOut;
+
+   public ZipTargetPlatformResolutionHandler(File platformZipFile, String pathPrefix) {
+      this.platformZipFile = platformZipFile;
+      this.pathPrefix = pathPrefix == null ? "" : pathPrefix + "/";
+      try {
+         platformZipFile.getParentFile().mkdirs();
+         zipOut = new ZipArchiveOutputStream(platformZipFile);
+         zipOut.setUseZip64(Zip64Mode.AsNeeded);
+      }
+      catch (IOException e) {
+         throw Exceptions.pipe(e);
+      }
+   }
+
+   public Collection<TargetEnvironment> getTargetEnvironments() {
+      return targetEnvironments;
+   }
+
+   public Collection<String> getExecutionEnvironments() {
+      return executionEnvironments;
+   }
+
+   @Override
+   public synchronized void handleTargetEnvironment(@NotNull String os, @NotNull String ws, @NotNull String arch) {
+      targetEnvironments.add(new TargetEnvironment(os, ws, arch));
+   }
+
+   @Override
+   public synchronized void handleExecutionEnvironment(@NotNull String ee) {
+      executionEnvironments.add(ee);
+   }
+
+   @Override
+   public synchronized void handleFeature(@NotNull String id, @NotNull String version, @NotNull File location,
+      MavenProject mavenProject) {
+      if (mavenProject == null) {
+         final String path = "features/" + getVersionedid(id, version);
+         if (!entryNames.contains(path + "/")) {
+            try {
+               putExploded(location, path);
+            }
+            catch (IOException e) {
+               throw Exceptions.pipe(e);
+            }
+         }
+      }
+   }
+
+   @Override
+   public synchronized void handlePlugin(@NotNull String id, @NotNull String version, @NotNull File location,
+      boolean unpack, MavenProject mavenProject) {
+      if (mavenProject == null) {
+         final String path = "plugins/" + getVersionedid(id, version);
+         final PluginEntry previous = plugins.get(path);
+         final boolean unpacked = unpack || location.isDirectory();
+         // same rule as for the copied platform, a plugin requested as jar may still be upgraded to unpacked
+         if (previous == null || unpacked && !previous.unpacked) {
+            plugins.put(path, new PluginEntry(location, unpacked));
+         }
+      }
+   }
+
+   /**
+    * Adds the content of the given directory, e.g. the generated target definitions, to the root of the archive.
+    */
+   public synchronized void addFiles(File dir) {
+      final File[] files = dir.listFiles();
+      if (files != null) {
+         try {
+            for (File file : files) {
+               if (file.isDirectory()) {
+                  putDirectory(file, file.getName());
+               }
+               else {
+                  putFile(file, file.getName());
+               }
+            }
+         }
+         catch (IOException e) {
+            throw Exceptions.pipe(e);
+         }
+      }
+   }
+
+   /**
+    * Discards the archive written so far, e.g. because the resolution failed.
+    */
+   public synchronized void abort() {
+      IOUtils.closeQuietly(zipOut);
+      FileUtils.deleteQuietly(platformZipFile);
+   }
+
+   public synchronized void close() {
+      try {
+         putPlugins();
+         zipOut.finish();
+      }
+      catch (IOException e) {
+         abort();
+         throw Exceptions.pipe(e);
+      }
+      finally {
+         IOUtils.closeQuietly(zipOut);
+      }
+   }
+
+   private void putPlugins() throws IOException {
+      for (Entry<String, PluginEntry> plugin : plugins.entrySet()) {
+         final String path = plugin.getKey();
+         final PluginEntry entry = plugin.getValue();
+         if (entry.location.isDirectory()) {
+            putDirectory(entry.location, path);
+         }
+         else if (entry.unpacked) {
+            putExploded(entry.location, path);
+         }
+         else {
+            putFile(entry.location, path + ".jar");
+         }
+      }
+      plugins.clear();
+   }
+
+   private void putExploded(File jarFile, String path) throws IOException {
+      putDirectoryEntry(path, jarFile.lastModified());
+      final ZipFile jar = new ZipFile(jarFile);
+      try {
+         final Enumeration<ZipArchiveEntry> entries = jar.getEntriesInPhysicalOrder();
+         while (entries.hasMoreElements()) {
+            final ZipArchiveEntry jarEntry = entries.nextElement();
+            final String name = path + "/" + jarEntry.getName();
+            if (jarEntry.isDirectory()) {
+               putDirectoryEntry(name.substring(0, name.length() - 1), jarEntry.getTime());
+            }
+            else {
+               putParentDirectoryEntries(name, jarEntry.getTime());
+               copyEntry(jar, jarEntry, name);
+            }
+         }
+      }
+      finally {
+         ZipFile.closeQuietly(jar);
+      }
+   }
+
+   private void copyEntry(ZipFile jar, ZipArchiveEntry jarEntry, String name) throws IOException {
+      final ZipArchiveEntry entry = new ZipArchiveEntry(this.pathPrefix + name);
+      entry.setTime(jarEntry.getTime());
+      final int method = jarEntry.getMethod();
+      if (method == ZipEntry.STORED || method == ZipEntry.DEFLATED) {
+         // copy the compressed bytes as they are, there is no need to inflate and deflate them again
+         entry.setMethod(method);
+         entry.setCrc(jarEntry.getCrc());
+         entry.setSize(jarEntry.getSize());
+         entry.setCompressedSize(jarEntry.getCompressedSize());
+         final InputStream in = jar.getRawInputStream(jarEntry);
+         try {
+            zipOut.addRawArchiveEntry(entry, in);
+         }
+         finally {
+            IOUtils.closeQuietly(in);
+         }
+      }
+      else {
+         entry.setMethod(ZipEntry.DEFLATED);
+         putEntry(entry, jar.getInputStream(jarEntry));
+      }
+      entryNames.add(name);
+   }
+
+   private void putDirectory(File dir, String path) throws IOException {
+      putDirectoryEntry(path, dir.lastModified());
+      final File[] files = dir.listFiles();
+      if (files != null) {
+         for (File file : files) {
+            final String childPath = path + "/" + file.getName();
+            if (file.isDirectory()) {
+               putDirectory(file, childPath);
+            }
+            else {
+               putFile(file, childPath);
+            }
+         }
+      }
+   }
+
+   private void putFile(File file, String path) throws IOException {
+      putParentDirectoryEntries(path, file.lastModified());
+      final ZipArchiveEntry entry = new ZipArchiveEntry(pathPrefix + path);
+      entry.setMethod(SimpleZipper.isCompressed(path) ? ZipEntry.STORED : ZipEntry.DEFLATED);
+      entry.setTime(file.lastModified());
+      putEntry(entry, new FileInputStream(file));
+      entryNames.add(path);
+   }
+
+   private void putParentDirectoryEntries(String path, long time) throws IOException {
+      final int idx = path.lastIndexOf('/');
+      if (idx > -1) {
+         putDirectoryEntry(path.substring(0, idx), time);
+      }
+   }
+
+   private void putDirectoryEntry(String path, long time) throws IOException {
+      if (entryNames.add(path + "/")) {
+         putParentDirectoryEntries(path, time);
+         final ZipArchiveEntry entry = new ZipArchiveEntry(pathPrefix + path + "/");
+         entry.setMethod(ZipEntry.STORED);
+         entry.setTime(time);
+         zipOut.putArchiveEntry(entry);
+         zipOut.closeArchiveEntry();
+      }
+   }
+
+   private void putEntry(ZipArchiveEntry entry, InputStream in) throws IOException {
+      try {
+         zipOut.putArchiveEntry(entry);
+         IOUtils.copy(in, zipOut);
+         zipOut.closeArchiveEntry();
+      }
+      finally {
+         IOUtils.closeQuietly(in);
+      }
+   }
+
+   private String getVersionedid(String id, String version) {
+      return id + "_" + version;
+   }
+
+   private static class PluginEntry {
+      final File location;
+
+      final boolean unpacked;
+
+      PluginEntry(File location, boolean unpacked) {
+         this.location = location;
+         this.unpacked = unpacked;
+      }
+   }
+}
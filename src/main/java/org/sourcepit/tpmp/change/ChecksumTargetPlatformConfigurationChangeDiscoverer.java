@@ -16,47 +16,58 @@
 
 package org.sourcepit.tpmp.change;
 
-import static org.sourcepit.common.utils.io.IO.buffIn;
-import static org.sourcepit.common.utils.io.IO.byteIn;
-import static org.sourcepit.common.utils.io.IO.fileIn;
-
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FilterReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Formatter;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.project.MavenProject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.sourcepit.common.utils.charset.CharsetDetectionResult;
 import org.sourcepit.common.utils.charset.CharsetDetector;
-import org.sourcepit.common.utils.io.IOHandle;
-import org.sourcepit.common.utils.io.IOOperation;
 import org.sourcepit.common.utils.lang.Exceptions;
-import org.sourcepit.common.utils.path.PathUtils;
-import org.sourcepit.common.utils.props.LinkedPropertiesMap;
-import org.sourcepit.common.utils.props.PropertiesMap;
 import org.sourcepit.tpmp.ToolUtils;
+import org.sourcepit.tpmp.change.StatusCache.FileStatus;
 
 @Named
 public class ChecksumTargetPlatformConfigurationChangeDiscoverer implements TargetPlatformConfigurationChangeDiscoverer {
+   private static final Logger LOGGER = LoggerFactory
+      .getLogger(ChecksumTargetPlatformConfigurationChangeDiscoverer.class);
+
+   private static final long MTIME_RESOLUTION = 2000;
+
    private final CharsetDetector charsetDetector;
 
    private final Map<String, TargetPlatformConfigurationFilesDiscoverer> configFilesDiscovererMap;
 
+   private final ConcurrentMap<File, StatusCache> statusCaches = new ConcurrentHashMap<File, StatusCache>();
+
+   // lives from the first change discovery until the status cache is flushed, which is usually once per session
+   private final ConcurrentMap<File, FileStatusMemo> memos = new ConcurrentHashMap<File, FileStatusMemo>();
+
    @Inject
    public ChecksumTargetPlatformConfigurationChangeDiscoverer(CharsetDetector charsetDetector,
       Map<String, TargetPlatformConfigurationFilesDiscoverer> configFilesDiscovererMap) {
@@ -81,15 +92,138 @@ public class ChecksumTargetPlatformConfigurationChangeDiscoverer implements Targ
       return false;
    }
 
+   @Override
+   public Set<MavenProject> discoverChangedTargetPlatformConfigurations(final File statusCacheDir,
+      final MavenSession session, List<MavenProject> projects, int threads) {
+      if (threads > 1) {
+         hashConfigurationFiles(statusCacheDir, session, projects, threads);
+      }
+
+      // all files are hashed now, so comparing and updating the project checksums is cheap
+      final Set<MavenProject> changedProjects = new LinkedHashSet<MavenProject>();
+      for (MavenProject project : projects) {
+         if (hasTargetPlatformConfigurationChanged(statusCacheDir, session, project)) {
+            changedProjects.add(project);
+         }
+      }
+      return changedProjects;
+   }
+
+   private void hashConfigurationFiles(final File statusCacheDir, final MavenSession session,
+      List<MavenProject> projects, int threads) {
+      // collect the distinct files of all projects and their parents, the memo takes the hashes
+      final Map<File, MavenProject> fileToProject = new LinkedHashMap<File, MavenProject>();
+      final Set<MavenProject> visited = new HashSet<MavenProject>();
+      for (MavenProject project : projects) {
+         MavenProject current = project;
+         while (current != null && visited.add(current)) {
+            for (File file : getTPFilesDiscoverer(session, current).getTargetPlatformConfigurationFiles(session,
+               current)) {
+               if (!fileToProject.containsKey(file)) {
+                  fileToProject.put(file, current);
+               }
+            }
+            current = current.getParent();
+         }
+      }
+
+      final List<Callable<FileStatus>> tasks = new ArrayList<Callable<FileStatus>>(fileToProject.size());
+      for (final Entry<File, MavenProject> entry : fileToProject.entrySet()) {
+         tasks.add(new Callable<FileStatus>() {
+            @Override
+            public FileStatus call() {
+               return getFileStatus(statusCacheDir, entry.getValue(), entry.getKey());
+            }
+         });
+      }
+
+      final ForkJoinPool pool = new ForkJoinPool(threads);
+      try {
+         for (Future<FileStatus> future : pool.invokeAll(tasks)) {
+            future.get();
+         }
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw Exceptions.pipe(e);
+      }
+      catch (ExecutionException e) {
+         final Throwable cause = e.getCause();
+         if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+         }
+         if (cause instanceof Error) {
+            throw (Error) cause;
+         }
+         throw Exceptions.pipe((Exception) cause);
+      }
+      finally {
+         pool.shutdown();
+      }
+   }
+
+   @Override
+   public String computeTargetPlatformConfigurationChecksum(File statusCacheDir, MavenSession session,
+      List<MavenProject> projects) {
+      final StringBuilder sb = new StringBuilder();
+      for (MavenProject project : projects) {
+         sb.append(project.getId());
+         sb.append('=');
+         sb.append(computeProjectChecksum(statusCacheDir, session, project));
+      }
+      try {
+         return ChecksumUtils.calculateHash(sb.toString().getBytes("UTF-8"), "UTF-8");
+      }
+      catch (UnsupportedEncodingException e) {
+         throw Exceptions.pipe(e);
+      }
+   }
+
    @Override
    public void clearTargetPlatformConfigurationStausCache(File statusCacheDir, MavenProject project) {
-      final File checksumFile = new File(statusCacheDir, "project-status.properties");
-      final PropertiesMap properties = new LinkedPropertiesMap();
-      if (checksumFile.exists()) {
-         properties.load(checksumFile);
-         properties.remove(project.getId());
-         properties.store(checksumFile);
+      getStatusCache(statusCacheDir).removeProjectChecksum(project.getId());
+   }
+
+   @Override
+   public void flushTargetPlatformConfigurationStatusCache(File statusCacheDir) {
+      final FileStatusMemo memo = memos.remove(statusCacheDir.getAbsoluteFile());
+      if (memo != null && LOGGER.isDebugEnabled()) {
+         final long hits = memo.hits.get();
+         final long total = hits + memo.misses.get();
+         LOGGER.debug("Configuration file hashes: " + hits + " of " + total + " reused within session ("
+            + (total == 0 ? 0 : hits * 100 / total) + "%)");
+      }
+
+      final StatusCache statusCache = statusCaches.remove(statusCacheDir.getAbsoluteFile());
+      if (statusCache != null) {
+         statusCache.flush();
+      }
+   }
+
+   private FileStatusMemo getMemo(File statusCacheDir) {
+      final File key = statusCacheDir.getAbsoluteFile();
+      FileStatusMemo memo = memos.get(key);
+      if (memo == null) {
+         final FileStatusMemo newMemo = new FileStatusMemo();
+         memo = memos.putIfAbsent(key, newMemo);
+         if (memo == null) {
+            memo = newMemo;
+         }
       }
+      return memo;
+   }
+
+   private StatusCache getStatusCache(File statusCacheDir) {
+      final File key = statusCacheDir.getAbsoluteFile();
+      StatusCache statusCache = statusCaches.get(key);
+      if (statusCache == null) {
+         final StatusCache newStatusCache = StatusCache.load(key);
+         statusCache = statusCaches.putIfAbsent(key, newStatusCache);
+         if (statusCache == null) {
+            statusCache = newStatusCache;
+         }
+      }
+      return statusCache;
    }
 
    private String computeProjectChecksum(File statusCacheDir, MavenSession session, MavenProject project) {
@@ -115,201 +249,125 @@ public class ChecksumTargetPlatformConfigurationChangeDiscoverer implements Targ
          final List<File> files = getTPFilesDiscoverer(session, project).getTargetPlatformConfigurationFiles(session,
             project);
          for (final File file : files) {
-            final String encoding = detectEncoding(project, file);
-            final String hash = calculateHash(file, encoding);
-            final String path = PathUtils.getRelativePath(file, new File("").getAbsoluteFile(), "/");
-
-            dump(statusCacheDir, path, encoding, hash);
-
-            sb.append(hash);
+            final FileStatus fileStatus = getFileStatus(statusCacheDir, project, file);
+            sb.append(fileStatus.getHash());
          }
       }
 
       try {
-         return calculateHash(sb.toString().getBytes("ASCII"), "ASCII");
+         return ChecksumUtils.calculateHash(sb.toString().getBytes("ASCII"), "ASCII");
       }
       catch (UnsupportedEncodingException e) {
          throw Exceptions.pipe(e);
       }
    }
 
-   private TargetPlatformConfigurationFilesDiscoverer getTPFilesDiscoverer(MavenSession session, MavenProject project) {
-      final String tool = ToolUtils.getTool(session, project);
-      if (tool == null) {
-         throw new IllegalStateException("Property tpmp.tool is not set");
+   private FileStatus getFileStatus(File statusCacheDir, MavenProject project, File file) {
+      // parent poms are shared by many projects, so detect and hash each file only once
+      final String key;
+      try {
+         key = file.getCanonicalPath() + "@" + getDefaultEncoding(project);
+      }
+      catch (IOException e) {
+         throw Exceptions.pipe(e);
       }
-      return configFilesDiscovererMap.get(tool);
-   }
 
-   private void dump(File statusCacheDir, String path, String encoding, String hash) {
-      final File checksumFile = new File(statusCacheDir, "dump.properties");
-      final PropertiesMap properties = new LinkedPropertiesMap();
-      if (checksumFile.exists()) {
-         properties.load(checksumFile);
+      final FileStatusMemo memo = getMemo(statusCacheDir);
+      FileStatus fileStatus = memo.fileStatuses.get(key);
+      if (fileStatus == null) {
+         memo.misses.incrementAndGet();
+         fileStatus = computeFileStatus(statusCacheDir, project, file);
+         memo.fileStatuses.put(key, fileStatus);
       }
       else {
-         checksumFile.getParentFile().mkdirs();
-         try {
-            checksumFile.createNewFile();
-         }
-         catch (IOException e) {
-            throw Exceptions.pipe(e);
-         }
+         memo.hits.incrementAndGet();
       }
-      properties.put(path + "@" + encoding, hash);
-      properties.store(checksumFile);
+      return fileStatus;
    }
 
-   private String detectEncoding(final MavenProject project, final File file) {
-      final CharsetDetectionResult[] result = new CharsetDetectionResult[1];
-
-      new IOOperation<InputStream>(fileIn(file)) {
-         @Override
-         protected void run(InputStream openResource) throws IOException {
-            result[0] = charsetDetector.detect(file.getName(), openResource, getDefaultEncoding(project));
-         }
-      }.run();
-
-      return result[0].getRecommendedCharset().name();
-   }
-
-   private static String calculateHash(File file, String encoding) {
-      final MessageDigest sha1;
+   private FileStatus computeFileStatus(File statusCacheDir, MavenProject project, File file) {
+      final BasicFileAttributes attributes;
       try {
-         sha1 = MessageDigest.getInstance("SHA1");
+         attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
       }
-      catch (NoSuchAlgorithmException e) {
+      catch (IOException e) {
          throw Exceptions.pipe(e);
       }
 
-      return calculateHash(sha1, buffIn(fileIn(file)), encoding);
-   }
+      final long length = attributes.size();
+      final long lastModified = attributes.lastModifiedTime().toMillis();
+      final Object fileKey = attributes.fileKey();
+      final String defaultEncoding = getDefaultEncoding(project);
 
-   private static String calculateHash(byte[] bytes, String encoding) {
-      final MessageDigest sha1;
-      try {
-         sha1 = MessageDigest.getInstance("SHA1");
-      }
-      catch (NoSuchAlgorithmException e) {
-         throw Exceptions.pipe(e);
+      final StatusCache statusCache = getStatusCache(statusCacheDir);
+      final String path = file.getAbsolutePath();
+
+      FileStatus fileStatus = statusCache.getFileStatus(path);
+      if (fileStatus != null
+         && fileStatus.isUpToDate(length, lastModified, fileKey == null ? null : fileKey.toString(), defaultEncoding)) {
+         return fileStatus;
       }
-      return calculateHash(sha1, buffIn(byteIn(bytes)), encoding);
-   }
 
-   private static String calculateHash(final MessageDigest algorithm, final IOHandle<? extends InputStream> ioResource,
-      final String encoding) {
-      Reader reader = null;
-      InputStream inputStream = null;
+      // read once, the encoding is decided from the same bytes that are hashed
+      final byte[] content;
       try {
-         inputStream = ioResource.open();
-         reader = new WhitespaceFilterReader(new InputStreamReader(inputStream, encoding));
-
-         int ch = reader.read();
-         while (ch > -1) {
-            algorithm.update((byte) ((ch & 0xFF00) >> 8));
-            algorithm.update((byte) (ch & 0x00FF));
-            ch = reader.read();
-         }
+         content = Files.readAllBytes(file.toPath());
       }
       catch (IOException e) {
          throw Exceptions.pipe(e);
       }
-      finally {
-         IOUtils.closeQuietly(reader);
+      final String encoding = detectEncoding(project, file, content);
+      final String hash = ChecksumUtils.calculateHash(content, encoding);
+      fileStatus = new FileStatus(length, lastModified, fileKey == null ? null : fileKey.toString(), defaultEncoding,
+         encoding, hash);
+
+      // a file modified within the resolution of its time stamp may still change unnoticed, so don't trust it yet
+      if (System.currentTimeMillis() - lastModified > MTIME_RESOLUTION) {
+         statusCache.setFileStatus(path, fileStatus);
       }
-
-      // get the hash value as byte array
-      byte[] hash = algorithm.digest();
-
-      return byteArray2Hex(hash);
-   }
-
-   private static final class WhitespaceFilterReader extends FilterReader {
-      private WhitespaceFilterReader(Reader in) {
-         super(in);
-      }
-
-      @Override
-      public long skip(long n) throws IOException {
-         if (n < 0L) {
-            throw new IllegalArgumentException("skip value is negative");
-         }
-
-         for (long i = 0; i < n; i++) {
-            if (read() == -1) {
-               return i;
-            }
-         }
-         return n;
+      else {
+         statusCache.removeFileStatus(path);
       }
+      return fileStatus;
+   }
 
-      @Override
-      public int read(char[] cbuf, int off, int len) throws IOException {
-         for (int i = 0; i < len; i++) {
-            int ch = read();
-            if (ch == -1) {
-               if (i == 0) {
-                  return -1;
-               }
-               else {
-                  return i;
-               }
-            }
-            cbuf[off + i] = (char) ch;
-         }
-         return len;
+   private TargetPlatformConfigurationFilesDiscoverer getTPFilesDiscoverer(MavenSession session, MavenProject project) {
+      final String tool = ToolUtils.getTool(session, project);
+      if (tool == null) {
+         throw new IllegalStateException("Property tpmp.tool is not set");
       }
+      return configFilesDiscovererMap.get(tool);
+   }
 
-      @Override
-      public int read() throws IOException {
-         int ch = super.read();
-         while (Character.isWhitespace(ch)) {
-            ch = super.read();
-         }
-         return ch;
+   private String detectEncoding(MavenProject project, File file, byte[] content) {
+      final String encoding = EncodingSniffer.sniff(file.getName(), content);
+      if (encoding != null) {
+         return encoding;
       }
-   }
 
-   private static String byteArray2Hex(byte[] hash) {
-      Formatter formatter = null;
+      final CharsetDetectionResult result;
       try {
-         formatter = new Formatter();
-         for (byte b : hash) {
-            formatter.format("%02x", Byte.valueOf(b));
-         }
-         return formatter.toString();
+         result = charsetDetector.detect(file.getName(), new ByteArrayInputStream(content), getDefaultEncoding(project));
       }
-      finally {
-         IOUtils.closeQuietly(formatter);
+      catch (IOException e) {
+         throw Exceptions.pipe(e);
       }
+      return result.getRecommendedCharset().name();
    }
 
    private String getProjectChecksum(File statusCacheDir, MavenProject project) {
-      final File checksumFile = new File(statusCacheDir, "project-status.properties");
-      if (checksumFile.exists()) {
-         final PropertiesMap properties = new LinkedPropertiesMap();
-         properties.load(checksumFile);
-         return properties.get(project.getId());
-      }
-      return null;
+      return getStatusCache(statusCacheDir).getProjectChecksum(project.getId());
    }
 
    private void setProjectChecksum(File statusCacheDir, MavenProject project, String checksum) {
-      final File checksumFile = new File(statusCacheDir, "project-status.properties");
-      final PropertiesMap properties = new LinkedPropertiesMap();
-      if (checksumFile.exists()) {
-         properties.load(checksumFile);
-      }
-      else {
-         checksumFile.getParentFile().mkdirs();
-         try {
-            checksumFile.createNewFile();
-         }
-         catch (IOException e) {
-            throw Exceptions.pipe(e);
-         }
-      }
-      properties.put(project.getId(), checksum);
-      properties.store(checksumFile);
+      getStatusCache(statusCacheDir).setProjectChecksum(project.getId(), checksum);
+   }
+
+   private static final class FileStatusMemo {
+      private final ConcurrentMap<String, FileStatus> fileStatuses = new ConcurrentHashMap<String, FileStatus>();
+
+      private final AtomicLong hits = new AtomicLong();
+
+      private final AtomicLong misses = new AtomicLong();
    }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp.change;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.io.IOUtils;
+import org.sourcepit.common.utils.lang.Exceptions;
+
+public final class ChecksumUtils {
+   private static final int BUFFER_SIZE = 8 * 1024;
+
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   private ChecksumUtils() {
+      super();
+   }
+
+   /**
+    * Computes the SHA-1 of the non-whitespace characters of the given file, each fed to the digest as UTF-16BE. Thus,
+    * the hash neither depends on formatting nor on the encoding of the file.
+    */
+   public static String calculateHash(File file, String encoding) {
+      InputStream inputStream = null;
+      try {
+         inputStream = new FileInputStream(file);
+         return calculateHash(inputStream, encoding);
+      }
+      catch (IOException e) {
+         throw Exceptions.pipe(e);
+      }
+      finally {
+         IOUtils.closeQuietly(inputStream);
+      }
+   }
+
+   public static String calculateHash(byte[] bytes, String encoding) {
+      try {
+         return calculateHash(new ByteArrayInputStream(bytes), encoding);
+      }
+      catch (IOException e) {
+         throw Exceptions.pipe(e);
+      }
+   }
+
+   public static String calculateHash(InputStream inputStream, String encoding) throws IOException {
+      final MessageDigest sha1 = newSha1();
+
+      final Reader reader;
+      try {
+         reader = new InputStreamReader(inputStream, encoding);
+      }
+      catch (UnsupportedEncodingException e) {
+         throw Exceptions.pipe(e);
+      }
+
+      final char[] chars = new char[BUFFER_SIZE];
+      final byte[] bytes = new byte[BUFFER_SIZE * 2];
+      int n = reader.read(chars);
+      while (n > -1) {
+         int length = 0;
+         for (int i = 0; i < n; i++) {
+            final char ch = chars[i];
+            if (!Character.isWhitespace(ch)) {
+               bytes[length++] = (byte) (ch >> 8);
+               bytes[length++] = (byte) ch;
+            }
+         }
+         sha1.update(bytes, 0, length);
+         n = reader.read(chars);
+      }
+
+      return toHex(sha1.digest());
+   }
+
+   private static MessageDigest newSha1() {
+      try {
+         return MessageDigest.getInstance("SHA1");
+      }
+      catch (NoSuchAlgorithmException e) {
+         throw Exceptions.pipe(e);
+      }
+   }
+
+   private static String toHex(byte[] hash) {
+      final char[] chars = new char[hash.length * 2];
+      for (int i = 0; i < hash.length; i++) {
+         chars[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+         chars[i * 2 + 1] = HEX[hash[i] & 0xF];
+      }
+      return new String(chars);
+   }
+}
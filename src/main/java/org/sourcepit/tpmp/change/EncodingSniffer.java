@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp.change;
+
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decides the encoding of the target platform configuration files from their first bytes, that is from a byte order
+ * mark, an XML declaration or the file name in case of a manifest.
+ */
+final class EncodingSniffer {
+   private static final int MAX_DECLARATION_LENGTH = 256;
+
+   private static final Pattern ENCODING_DECL = Pattern
+      .compile("^<\\?xml\\s[^>]*?encoding\\s*=\\s*[\"']([A-Za-z][A-Za-z0-9._\\-]*)[\"']");
+
+   private EncodingSniffer() {
+      super();
+   }
+
+   /**
+    * Returns the encoding of the given file content or <code>null</code>, if it can't be decided cheaply.
+    */
+   public static String sniff(String fileName, byte[] bytes) {
+      final String bomEncoding = sniffByteOrderMark(bytes);
+      if (bomEncoding != null) {
+         return bomEncoding;
+      }
+
+      if ("MANIFEST.MF".equals(fileName)) {
+         // required by the JAR file specification
+         return "UTF-8";
+      }
+
+      return sniffXmlDeclaration(bytes);
+   }
+
+   private static String sniffByteOrderMark(byte[] bytes) {
+      if (startsWith(bytes, 0xEF, 0xBB, 0xBF)) {
+         return "UTF-8";
+      }
+      if (startsWith(bytes, 0xFF, 0xFE, 0x00, 0x00) || startsWith(bytes, 0x00, 0x00, 0xFE, 0xFF)) {
+         // UTF-32, leave it to the generic detector
+         return null;
+      }
+      if (startsWith(bytes, 0xFE, 0xFF) || startsWith(bytes, 0xFF, 0xFE)) {
+         // the UTF-16 decoder consumes the mark and picks the byte order
+         return "UTF-16";
+      }
+      return null;
+   }
+
+   private static String sniffXmlDeclaration(byte[] bytes) {
+      if (!startsWith(bytes, '<', '?', 'x', 'm', 'l')) {
+         return null;
+      }
+
+      final int length = Math.min(bytes.length, MAX_DECLARATION_LENGTH);
+      final char[] chars = new char[length];
+      for (int i = 0; i < length; i++) {
+         final int b = bytes[i] & 0xFF;
+         if (b > 0x7F) {
+            break;
+         }
+         chars[i] = (char) b;
+         if (b == '>') {
+            final String declaration = new String(chars, 0, i + 1);
+            final Matcher matcher = ENCODING_DECL.matcher(declaration);
+            if (!matcher.find()) {
+               // no encoding declared and no byte order mark
+               return "UTF-8";
+            }
+            return toSupportedCharset(matcher.group(1));
+         }
+      }
+      return null;
+   }
+
+   private static String toSupportedCharset(String encoding) {
+      final String upperCase = encoding.toUpperCase(Locale.ROOT);
+      if (upperCase.startsWith("UTF-16") || upperCase.startsWith("UTF-32")) {
+         // contradicts the ASCII compatible declaration we just read
+         return null;
+      }
+      try {
+         return Charset.isSupported(encoding) ? Charset.forName(encoding).name() : null;
+      }
+      catch (IllegalCharsetNameException e) {
+         return null;
+      }
+   }
+
+   private static boolean startsWith(byte[] bytes, int... prefix) {
+      if (bytes.length < prefix.length) {
+         return false;
+      }
+      for (int i = 0; i < prefix.length; i++) {
+         if ((bytes[i] & 0xFF) != prefix[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+}
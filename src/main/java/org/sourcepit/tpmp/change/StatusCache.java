@@ -0,0 +1,305 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp.change;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.sourcepit.common.utils.lang.Exceptions;
+import org.sourcepit.common.utils.props.LinkedPropertiesMap;
+import org.sourcepit.common.utils.props.PropertiesMap;
+
+/**
+ * The checksums of the target platform configurations of a session, held in memory and persisted in a single binary
+ * file.
+ */
+public class StatusCache {
+   private static final String CACHE_FILE = "status.bin";
+
+   private static final String LEGACY_PROJECT_STATUS_FILE = "project-status.properties";
+
+   private static final String LEGACY_DUMP_FILE = "dump.properties";
+
+   private static final int MAGIC = 0x54504d50; // TPMP
+
+   // 3: the hashes of configuration files depend on the sniffed encoding
+   // 4: no more dump of the file hashes
+   private static final int VERSION = 4;
+
+   private final File statusCacheDir;
+
+   private final Map<String, String> projectChecksums = new LinkedHashMap<String, String>();
+
+   private final Map<String, FileStatus> fileStatuses = new LinkedHashMap<String, FileStatus>();
+
+   // the files looked up since loading, the status of any other file is dropped on flush
+   private final Set<String> seenPaths = new HashSet<String>();
+
+   private boolean dirty;
+
+   private StatusCache(File statusCacheDir) {
+      this.statusCacheDir = statusCacheDir;
+   }
+
+   public static StatusCache load(File statusCacheDir) {
+      final StatusCache cache = new StatusCache(statusCacheDir);
+      final File cacheFile = new File(statusCacheDir, CACHE_FILE);
+      if (cacheFile.exists()) {
+         cache.read(cacheFile);
+      }
+      else {
+         cache.migrateLegacyFiles();
+      }
+      return cache;
+   }
+
+   public synchronized String getProjectChecksum(String projectId) {
+      return projectChecksums.get(projectId);
+   }
+
+   public synchronized void setProjectChecksum(String projectId, String checksum) {
+      if (!checksum.equals(projectChecksums.put(projectId, checksum))) {
+         dirty = true;
+      }
+   }
+
+   public synchronized void removeProjectChecksum(String projectId) {
+      if (projectChecksums.remove(projectId) != null) {
+         dirty = true;
+      }
+   }
+
+   public synchronized FileStatus getFileStatus(String path) {
+      seenPaths.add(path);
+      return fileStatuses.get(path);
+   }
+
+   public synchronized void setFileStatus(String path, FileStatus fileStatus) {
+      seenPaths.add(path);
+      if (!fileStatus.equals(fileStatuses.put(path, fileStatus))) {
+         dirty = true;
+      }
+   }
+
+   public synchronized void removeFileStatus(String path) {
+      if (fileStatuses.remove(path) != null) {
+         dirty = true;
+      }
+   }
+
+   public synchronized void flush() {
+      if (!seenPaths.isEmpty() && fileStatuses.keySet().retainAll(seenPaths)) {
+         // e.g. deleted poms or projects no longer part of the reactor
+         dirty = true;
+      }
+      seenPaths.clear();
+
+      if (!dirty) {
+         return;
+      }
+
+      final File cacheFile = new File(statusCacheDir, CACHE_FILE);
+      final File tmpFile = new File(statusCacheDir, CACHE_FILE + ".tmp");
+      try {
+         if (!statusCacheDir.mkdirs() && !statusCacheDir.isDirectory()) {
+            throw new IOException("Unable to create directory " + statusCacheDir);
+         }
+         write(tmpFile);
+         Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException e) {
+         throw Exceptions.pipe(e);
+      }
+
+      new File(statusCacheDir, LEGACY_PROJECT_STATUS_FILE).delete();
+      new File(statusCacheDir, LEGACY_DUMP_FILE).delete();
+
+      dirty = false;
+   }
+
+   private void read(File cacheFile) {
+      DataInputStream in = null;
+      try {
+         in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+         final int version = in.readInt() == MAGIC ? in.readInt() : -1;
+         if (version != VERSION) {
+            // unknown format or hashes computed differently, start from scratch
+            dirty = true;
+            return;
+         }
+         readMap(in, projectChecksums);
+         readFileStatuses(in);
+      }
+      catch (IOException e) {
+         // truncated or corrupt, start from scratch
+         projectChecksums.clear();
+         fileStatuses.clear();
+         dirty = true;
+      }
+      finally {
+         IOUtils.closeQuietly(in);
+      }
+   }
+
+   private void write(File file) throws IOException {
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      try {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         writeMap(out, projectChecksums);
+         writeFileStatuses(out);
+      }
+      finally {
+         out.close();
+      }
+   }
+
+   private static void readMap(DataInputStream in, Map<String, String> map) throws IOException {
+      final int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+         map.put(in.readUTF(), in.readUTF());
+      }
+   }
+
+   private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+      out.writeInt(map.size());
+      for (Entry<String, String> entry : map.entrySet()) {
+         out.writeUTF(entry.getKey());
+         out.writeUTF(entry.getValue());
+      }
+   }
+
+   private void readFileStatuses(DataInputStream in) throws IOException {
+      final int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+         final String path = in.readUTF();
+         final long length = in.readLong();
+         final long lastModified = in.readLong();
+         final String fileKey = in.readUTF();
+         final String defaultEncoding = in.readUTF();
+         final String encoding = in.readUTF();
+         final String hash = in.readUTF();
+         fileStatuses.put(path, new FileStatus(length, lastModified, fileKey, defaultEncoding, encoding, hash));
+      }
+   }
+
+   private void writeFileStatuses(DataOutputStream out) throws IOException {
+      out.writeInt(fileStatuses.size());
+      for (Entry<String, FileStatus> entry : fileStatuses.entrySet()) {
+         final FileStatus status = entry.getValue();
+         out.writeUTF(entry.getKey());
+         out.writeLong(status.length);
+         out.writeLong(status.lastModified);
+         out.writeUTF(status.fileKey);
+         out.writeUTF(status.defaultEncoding);
+         out.writeUTF(status.encoding);
+         out.writeUTF(status.hash);
+      }
+   }
+
+   private void migrateLegacyFiles() {
+      migrate(new File(statusCacheDir, LEGACY_PROJECT_STATUS_FILE), projectChecksums);
+      if (new File(statusCacheDir, LEGACY_DUMP_FILE).exists()) {
+         // not needed anymore, deleted on flush
+         dirty = true;
+      }
+   }
+
+   private void migrate(File propertiesFile, Map<String, String> map) {
+      if (propertiesFile.exists()) {
+         final PropertiesMap properties = new LinkedPropertiesMap();
+         properties.load(propertiesFile);
+         for (Entry<String, String> entry : properties.entrySet()) {
+            map.put(entry.getKey(), entry.getValue());
+         }
+         dirty = true;
+      }
+   }
+
+   /**
+    * The hash of a file together with the file attributes it was computed for.
+    */
+   public static final class FileStatus {
+      private final long length;
+
+      private final long lastModified;
+
+      private final String fileKey;
+
+      private final String defaultEncoding;
+
+      private final String encoding;
+
+      private final String hash;
+
+      public FileStatus(long length, long lastModified, String fileKey, String defaultEncoding, String encoding,
+         String hash) {
+         this.length = length;
+         this.lastModified = lastModified;
+         this.fileKey = fileKey == null ? "" : fileKey;
+         this.defaultEncoding = defaultEncoding;
+         this.encoding = encoding;
+         this.hash = hash;
+      }
+
+      public boolean isUpToDate(long length, long lastModified, String fileKey, String defaultEncoding) {
+         return this.length == length && this.lastModified == lastModified
+            && this.fileKey.equals(fileKey == null ? "" : fileKey) && this.defaultEncoding.equals(defaultEncoding);
+      }
+
+      public String getEncoding() {
+         return encoding;
+      }
+
+      public String getHash() {
+         return hash;
+      }
+
+      @Override
+      public int hashCode() {
+         return hash.hashCode();
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (this == obj) {
+            return true;
+         }
+         if (!(obj instanceof FileStatus)) {
+            return false;
+         }
+         final FileStatus other = (FileStatus) obj;
+         return isUpToDate(other.length, other.lastModified, other.fileKey, other.defaultEncoding)
+            && encoding.equals(other.encoding) && hash.equals(other.hash);
+      }
+   }
+}
@@ -17,6 +17,8 @@
 package org.sourcepit.tpmp.change;
 
 import java.io.File;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.project.MavenProject;
@@ -24,5 +26,13 @@ import org.apache.maven.project.MavenProject;
 public interface TargetPlatformConfigurationChangeDiscoverer {
    boolean hasTargetPlatformConfigurationChanged(File statusCacheDir, MavenSession session, MavenProject project);
 
+   Set<MavenProject> discoverChangedTargetPlatformConfigurations(File statusCacheDir, MavenSession session,
+      List<MavenProject> projects, int threads);
+
+   String computeTargetPlatformConfigurationChecksum(File statusCacheDir, MavenSession session,
+      List<MavenProject> projects);
+
    void clearTargetPlatformConfigurationStausCache(File statusCacheDir, MavenProject project);
+
+   void flushTargetPlatformConfigurationStatusCache(File statusCacheDir);
 }
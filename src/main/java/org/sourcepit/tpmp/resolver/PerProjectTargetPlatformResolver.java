@@ -17,14 +17,25 @@
 package org.sourcepit.tpmp.resolver;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.apache.maven.execution.MavenSession;
+import org.apache.maven.execution.ProjectDependencyGraph;
 import org.apache.maven.project.MavenProject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sourcepit.common.utils.lang.Exceptions;
+import org.sourcepit.tpmp.WorkerPool;
 import org.sourcepit.tpmp.change.TargetPlatformConfigurationChangeDiscoverer;
 
 @Named("per-project")
@@ -48,10 +59,17 @@ public class PerProjectTargetPlatformResolver implements TargetPlatformResolver
    }
 
    @Override
-   public void resolve(MavenSession session, File platformDir, boolean includeSource, boolean forceUpdate,
+   public void resolve(MavenSession session, File platformDir, TargetPlatformResolutionOptions options,
       TargetPlatformConfigurationHandler configHandler, TargetPlatformResolutionHandler resolutionHandler) {
       resolveTargetPlatformConfiguration(session, configHandler);
-      resolveTargetPlatform(session, includeSource, forceUpdate, getMetadataDir(platformDir), resolutionHandler);
+      final File metadataDir = getMetadataDir(platformDir);
+      try {
+         resolveTargetPlatform(session, options.isIncludeSource(), options.isForceUpdate(),
+            options.getResolutionThreads(), metadataDir, resolutionHandler);
+      }
+      finally {
+         changeDiscoverer.flushTargetPlatformConfigurationStatusCache(metadataDir);
+      }
    }
 
    private void resolveTargetPlatformConfiguration(MavenSession session, TargetPlatformConfigurationHandler handler) {
@@ -60,40 +78,105 @@ public class PerProjectTargetPlatformResolver implements TargetPlatformResolver
       }
    }
 
-   private void resolveTargetPlatform(MavenSession session, boolean includeSource, boolean forceUpdate,
-      File metadataDir, final TargetPlatformResolutionHandler handler) {
+   private void resolveTargetPlatform(final MavenSession session, final boolean includeSource, boolean forceUpdate,
+      int resolutionThreads, File metadataDir, final TargetPlatformResolutionHandler handler) {
+      // check all projects up front, the configuration files are hashed in parallel, independent of how many projects
+      // may be resolved concurrently
+      final Set<MavenProject> changedProjects = changeDiscoverer.discoverChangedTargetPlatformConfigurations(
+         metadataDir, session, session.getProjects(), Runtime.getRuntime().availableProcessors());
+
+      final List<MavenProject> projects = new ArrayList<MavenProject>();
       for (MavenProject project : session.getProjects()) {
-         resolveTargetPlatform(session, project, includeSource, forceUpdate, metadataDir, handler);
+         if (forceUpdate || changedProjects.contains(project)) {
+            projects.add(project);
+         }
+         else {
+            getLogger().info("Target platform of project " + project.getId() + " already materialized and up to date");
+         }
+      }
+
+      if (resolutionThreads > 1 && projects.size() > 1) {
+         getLogger().warn(
+            "Resolving target platforms with " + resolutionThreads
+               + " threads. Tycho doesn't guarantee that its resolver may be used concurrently, "
+               + "set tpmp.resolutionThreads=1 if the resolution fails or yields different results.");
+      }
+
+      // a project starts only after the reactor projects it depends on, independent projects run concurrently
+      final Map<MavenProject, CountDownLatch> doneSignals = new HashMap<MavenProject, CountDownLatch>();
+      for (MavenProject project : projects) {
+         doneSignals.put(project, new CountDownLatch(1));
+      }
+      final ProjectDependencyGraph dependencyGraph = session.getProjectDependencyGraph();
+
+      final Set<MavenProject> resolvedProjects = Collections.synchronizedSet(new HashSet<MavenProject>());
+      final WorkerPool workerPool = new WorkerPool("resolve", resolutionThreads);
+      try {
+         // reactor order, so upstream projects are always submitted first
+         for (final MavenProject project : projects) {
+            final List<MavenProject> upstreamProjects = new ArrayList<MavenProject>();
+            if (dependencyGraph != null) {
+               for (MavenProject upstreamProject : dependencyGraph.getUpstreamProjects(project, true)) {
+                  if (doneSignals.containsKey(upstreamProject)) {
+                     upstreamProjects.add(upstreamProject);
+                  }
+               }
+            }
+            workerPool.execute(new Runnable() {
+               @Override
+               public void run() {
+                  try {
+                     if (awaitUpstreamProjects(upstreamProjects, doneSignals, resolvedProjects)) {
+                        getLogger().info("Materializing target platform of project " + project.getId());
+                        tpResolver.resolveTargetPlatform(session, project, includeSource, handler);
+                        resolvedProjects.add(project);
+                     }
+                  }
+                  finally {
+                     doneSignals.get(project).countDown();
+                  }
+               }
+            });
+         }
+         workerPool.join();
+      }
+      catch (RuntimeException e) {
+         clearStatusCache(metadataDir, projects, resolvedProjects);
+         throw e;
+      }
+      catch (Error e) {
+         clearStatusCache(metadataDir, projects, resolvedProjects);
+         throw e;
+      }
+      finally {
+         workerPool.shutdown();
       }
    }
 
-   private void resolveTargetPlatform(MavenSession session, MavenProject project, boolean includeSource,
-      boolean forceUpdate, File metadataDir, final TargetPlatformResolutionHandler handler) throws Error {
-      if (isResolutionRequired(metadataDir, session, project, forceUpdate)) {
-         getLogger().info("Materializing target platform of project " + project.getId());
+   private static boolean awaitUpstreamProjects(List<MavenProject> upstreamProjects,
+      Map<MavenProject, CountDownLatch> doneSignals, Set<MavenProject> resolvedProjects) {
+      for (MavenProject upstreamProject : upstreamProjects) {
          try {
-            tpResolver.resolveTargetPlatform(session, project, includeSource, handler);
+            doneSignals.get(upstreamProject).await();
          }
-         catch (RuntimeException e) {
-            changeDiscoverer.clearTargetPlatformConfigurationStausCache(metadataDir, project);
-            throw e;
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Exceptions.pipe(e);
          }
-         catch (Error e) {
-            changeDiscoverer.clearTargetPlatformConfigurationStausCache(metadataDir, project);
-            throw e;
+         if (!resolvedProjects.contains(upstreamProject)) {
+            // the upstream failure is reported by the pool
+            return false;
          }
       }
-      else {
-         getLogger().info("Target platform of project " + project.getId() + " already materialized and up to date");
-      }
+      return true;
    }
 
-   private boolean isResolutionRequired(File metadataDir, MavenSession session, MavenProject project,
-      boolean forceUpdate) {
-      if (changeDiscoverer.hasTargetPlatformConfigurationChanged(metadataDir, session, project)) {
-         return true;
+   private void clearStatusCache(File metadataDir, List<MavenProject> projects, Set<MavenProject> resolvedProjects) {
+      for (MavenProject project : projects) {
+         if (!resolvedProjects.contains(project)) {
+            changeDiscoverer.clearTargetPlatformConfigurationStausCache(metadataDir, project);
+         }
       }
-      return forceUpdate;
    }
 
    protected File getMetadataDir(final File platformDir) {
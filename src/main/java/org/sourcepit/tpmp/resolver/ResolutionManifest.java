@@ -0,0 +1,260 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp.resolver;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.project.MavenProject;
+import org.sourcepit.common.utils.lang.Exceptions;
+
+/**
+ * Records the features and plugins a resolution delivered to its {@link TargetPlatformResolutionHandler} and replays
+ * them later on without resolving again. One line per entry, the fields separated by tabs.
+ */
+public class ResolutionManifest implements TargetPlatformResolutionHandler {
+   private static final String HEADER = "# tpmp resolution manifest 1";
+
+   private static final String FEATURE = "feature";
+
+   private static final String PLUGIN = "plugin";
+
+   private final TargetPlatformResolutionHandler delegate;
+
+   private final List<String[]> entries = new ArrayList<String[]>();
+
+   /**
+    * Creates a manifest that records everything passed on to the given delegate.
+    */
+   public ResolutionManifest(TargetPlatformResolutionHandler delegate) {
+      this.delegate = delegate;
+   }
+
+   @Override
+   public void handleFeature(String id, String version, File location, MavenProject mavenProject) {
+      record(FEATURE, id, version, false, location, mavenProject);
+      delegate.handleFeature(id, version, location, mavenProject);
+   }
+
+   @Override
+   public void handlePlugin(String id, String version, File location, boolean unpack, MavenProject mavenProject) {
+      record(PLUGIN, id, version, unpack, location, mavenProject);
+      delegate.handlePlugin(id, version, location, unpack, mavenProject);
+   }
+
+   private synchronized void record(String kind, String id, String version, boolean unpack, File location,
+      MavenProject mavenProject) {
+      final String path;
+      if (mavenProject == null) {
+         path = location.getAbsolutePath();
+      }
+      else {
+         // relative, so that another checkout of the same reactor replays its own projects
+         path = mavenProject.getBasedir().getAbsoluteFile().toPath().relativize(location.getAbsoluteFile().toPath())
+            .toString();
+      }
+      entries.add(new String[] { kind, id, version, String.valueOf(unpack),
+         mavenProject == null ? "" : mavenProject.getId(), path });
+   }
+
+   public synchronized void write(File file) {
+      final File tmpFile = new File(file.getPath() + ".tmp");
+      try {
+         final File dir = file.getParentFile();
+         if (!dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Unable to create directory " + dir);
+         }
+
+         final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8"));
+         try {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (String[] entry : entries) {
+               for (int i = 0; i < entry.length; i++) {
+                  if (i > 0) {
+                     writer.write('\t');
+                  }
+                  writer.write(entry[i]);
+               }
+               writer.write('\n');
+            }
+         }
+         finally {
+            writer.close();
+         }
+
+         Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException e) {
+         throw Exceptions.pipe(e);
+      }
+   }
+
+   /**
+    * Delivers the entries of the given manifest file to the handler. Nothing is delivered and <code>false</code> is
+    * returned, if the file can't be read or if any location or reactor project it refers to is gone.
+    */
+   public static boolean replay(File file, Collection<MavenProject> projects, TargetPlatformResolutionHandler handler) {
+      final List<String[]> entries = read(file);
+      if (entries == null) {
+         return false;
+      }
+
+      final Map<String, MavenProject> idToProject = new HashMap<String, MavenProject>();
+      for (MavenProject project : projects) {
+         idToProject.put(project.getId(), project);
+      }
+
+      // check everything up front, the handler can't take back what it already received
+      final List<MavenProject> entryProjects = new ArrayList<MavenProject>(entries.size());
+      final List<File> locations = new ArrayList<File>(entries.size());
+      for (String[] entry : entries) {
+         final String projectId = entry[4];
+         final MavenProject project = projectId.isEmpty() ? null : idToProject.get(projectId);
+         if (!projectId.isEmpty() && project == null) {
+            return false;
+         }
+         final File location = project == null ? new File(entry[5]) : new File(project.getBasedir(), entry[5]);
+         if (!location.exists()) {
+            return false;
+         }
+         entryProjects.add(project);
+         locations.add(location);
+      }
+
+      for (int i = 0; i < entries.size(); i++) {
+         final String[] entry = entries.get(i);
+         if (FEATURE.equals(entry[0])) {
+            handler.handleFeature(entry[1], entry[2], locations.get(i), entryProjects.get(i));
+         }
+         else {
+            handler.handlePlugin(entry[1], entry[2], locations.get(i), Boolean.parseBoolean(entry[3]),
+               entryProjects.get(i));
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Returns <code>true</code>, if the features and plugins of the given manifest file, except those of reactor
+    * projects, are in place in the given platform directory.
+    */
+   public static boolean isMaterialized(File file, File platformDir) {
+      final List<String[]> entries = read(file);
+      if (entries == null) {
+         return false;
+      }
+      final File featuresDir = new File(platformDir, "features");
+      final File pluginsDir = new File(platformDir, "plugins");
+      for (String[] entry : entries) {
+         if (!entry[4].isEmpty()) {
+            // reactor projects aren't materialized
+            continue;
+         }
+         final String versionedId = entry[1] + "_" + entry[2];
+         if (FEATURE.equals(entry[0])) {
+            if (!new File(featuresDir, versionedId).isDirectory()) {
+               return false;
+            }
+         }
+         else if (!new File(pluginsDir, versionedId).exists() && !new File(pluginsDir, versionedId + ".jar").exists()) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Deletes all but the given number of most recently modified manifest files in the given directory.
+    */
+   public static void evict(File dir, int maxManifests) {
+      final File[] files = dir.listFiles();
+      if (files == null || files.length <= maxManifests) {
+         return;
+      }
+
+      final List<File> manifests = new ArrayList<File>(files.length);
+      final Map<File, Long> lastModified = new HashMap<File, Long>(files.length);
+      for (File file : files) {
+         // skips the files other builds are just writing
+         if (file.isFile() && !file.getName().endsWith(".tmp")) {
+            manifests.add(file);
+            lastModified.put(file, Long.valueOf(file.lastModified()));
+         }
+      }
+      // newest first, each modification time read once as it may change while sorting
+      Collections.sort(manifests, new Comparator<File>() {
+         @Override
+         public int compare(File f1, File f2) {
+            return lastModified.get(f2).compareTo(lastModified.get(f1));
+         }
+      });
+      for (File manifest : manifests.subList(Math.min(maxManifests, manifests.size()), manifests.size())) {
+         manifest.delete();
+      }
+   }
+
+   private static List<String[]> read(File file) {
+      if (!file.isFile()) {
+         return null;
+      }
+
+      BufferedReader reader = null;
+      try {
+         reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+         if (!HEADER.equals(reader.readLine())) {
+            return null;
+         }
+
+         final List<String[]> entries = new ArrayList<String[]>();
+         String line = reader.readLine();
+         while (line != null) {
+            final String[] entry = line.split("\t", 6);
+            if (entry.length != 6 || !FEATURE.equals(entry[0]) && !PLUGIN.equals(entry[0])) {
+               return null;
+            }
+            entries.add(entry);
+            line = reader.readLine();
+         }
+         return entries;
+      }
+      catch (IOException e) {
+         return null;
+      }
+      finally {
+         IOUtils.closeQuietly(reader);
+      }
+   }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp.resolver;
+
+import java.io.File;
+
+/**
+ * Tells a {@link TargetPlatformResolver} what to resolve and how. Resolvers ignore options that don't apply to them.
+ */
+public class TargetPlatformResolutionOptions {
+   private boolean includeSource;
+
+   private boolean forceUpdate;
+
+   private boolean skipUnchanged;
+
+   private File resolutionManifestDir;
+
+   private int resolutionThreads = 1;
+
+   private int sourceThreads = 1;
+
+   public boolean isIncludeSource() {
+      return includeSource;
+   }
+
+   public void setIncludeSource(boolean includeSource) {
+      this.includeSource = includeSource;
+   }
+
+   /**
+    * Whether to resolve everything again, even if the configuration didn't change.
+    */
+   public boolean isForceUpdate() {
+      return forceUpdate;
+   }
+
+   public void setForceUpdate(boolean forceUpdate) {
+      this.forceUpdate = forceUpdate;
+   }
+
+   /**
+    * Whether to skip the resolution when neither the configuration nor the repositories changed since the platform was
+    * materialized.
+    */
+   public boolean isSkipUnchanged() {
+      return skipUnchanged;
+   }
+
+   public void setSkipUnchanged(boolean skipUnchanged) {
+      this.skipUnchanged = skipUnchanged;
+   }
+
+   /**
+    * The directory to record resolutions in and replay them from, or <code>null</code> to not replay resolutions.
+    */
+   public File getResolutionManifestDir() {
+      return resolutionManifestDir;
+   }
+
+   public void setResolutionManifestDir(File resolutionManifestDir) {
+      this.resolutionManifestDir = resolutionManifestDir;
+   }
+
+   public int getResolutionThreads() {
+      return resolutionThreads;
+   }
+
+   public void setResolutionThreads(int resolutionThreads) {
+      this.resolutionThreads = resolutionThreads;
+   }
+
+   public int getSourceThreads() {
+      return sourceThreads;
+   }
+
+   public void setSourceThreads(int sourceThreads) {
+      this.sourceThreads = sourceThreads;
+   }
+}
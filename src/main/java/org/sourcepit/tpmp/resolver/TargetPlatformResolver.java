@@ -24,7 +24,7 @@ import org.apache.maven.execution.MavenSession;
 public interface TargetPlatformResolver {
    boolean isRelyingOnCachedFiles();
 
-   void resolve(MavenSession session, File platformDir, boolean includeSource, boolean forceUpdate,
+   void resolve(MavenSession session, File platformDir, TargetPlatformResolutionOptions options,
       TargetPlatformConfigurationHandler configHandler, TargetPlatformResolutionHandler resolutionHandler);
 
 }
\ No newline at end of file
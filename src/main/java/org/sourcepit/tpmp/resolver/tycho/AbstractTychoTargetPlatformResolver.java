@@ -57,6 +57,7 @@ import org.eclipse.tycho.core.resolver.shared.OptionalResolutionAction;
 import org.sourcepit.common.utils.io.IOOperation;
 import org.sourcepit.common.utils.xml.XmlUtils;
 import org.sourcepit.tpmp.resolver.TargetPlatformResolutionHandler;
+import org.sourcepit.tpmp.resolver.tycho.TychoSourceIUResolver.SourceResolution;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -84,28 +85,42 @@ public class AbstractTychoTargetPlatformResolver {
    private TychoSourceIUResolver sourceResolver;
 
    protected void doResolve(MavenSession session, MavenProject project, List<ReactorProject> reactorProjects,
-      boolean includeSource, Set<String> explodedBundles, List<Dependency> extraRequirements,
+      boolean includeSource, int sourceThreads, Set<String> explodedBundles, List<Dependency> extraRequirements,
       Collection<Dependency> frameworkExtensions, ContentCollector contentCollector) {
-      final TargetPlatform targetPlatform = resolve(session, project, reactorProjects, contentCollector,
-         explodedBundles, extraRequirements);
-
-      processFrameworkExtensions(explodedBundles, getFrameworkExtensions(session, project, frameworkExtensions),
-         contentCollector);
-
-      if (includeSource) {
-         sourceResolver.resolveSources(session, targetPlatform, contentCollector.getPlugins(), contentCollector);
-      }
-   }
-
-
-   protected TargetPlatform resolve(MavenSession session, final MavenProject project,
-      List<ReactorProject> reactorProjects, TargetPlatformResolutionHandler resolutionHandler,
-      final Set<String> explodedBundles, final List<Dependency> extraRequirements) {
       final DependencyResolver platformResolver = targetPlatformResolverLocator.lookupDependencyResolver(project);
 
       final TargetPlatform targetPlatform = platformResolver.computePreliminaryTargetPlatform(session, project,
          reactorProjects);
 
+      final DependencyArtifacts platformArtifacts = resolveDependencies(platformResolver, session, project,
+         targetPlatform, reactorProjects, extraRequirements);
+
+      if (!includeSource) {
+         handlePluginsAndFeatures(session, project, platformArtifacts, explodedBundles, contentCollector);
+         processFrameworkExtensions(explodedBundles, getFrameworkExtensions(session, project, frameworkExtensions),
+            contentCollector);
+         return;
+      }
+
+      // Tycho delivers the binaries all at once, but their sources are resolved while they are still handled
+      final SourceResolution sourceResolution = sourceResolver.startSourceResolution(session, targetPlatform,
+         sourceThreads, contentCollector);
+      try {
+         final TargetPlatformResolutionHandler handler = new SourceTargetCollector(contentCollector,
+            sourceResolution);
+         handlePluginsAndFeatures(session, project, platformArtifacts, explodedBundles, handler);
+         processFrameworkExtensions(explodedBundles, getFrameworkExtensions(session, project, frameworkExtensions),
+            handler);
+         sourceResolution.finish();
+      }
+      finally {
+         sourceResolution.shutdown();
+      }
+   }
+
+   private static DependencyArtifacts resolveDependencies(DependencyResolver platformResolver, MavenSession session,
+      MavenProject project, TargetPlatform targetPlatform, List<ReactorProject> reactorProjects,
+      final List<Dependency> extraRequirements) {
       final DependencyResolverConfiguration resolverConfiguration = new DependencyResolverConfiguration() {
          @Override
          public OptionalResolutionAction getOptionalResolutionAction() {
@@ -118,12 +133,8 @@ public class AbstractTychoTargetPlatformResolver {
          }
       };
 
-      final DependencyArtifacts platformArtifacts = platformResolver.resolveDependencies(session, project,
-         targetPlatform, reactorProjects, resolverConfiguration);
-
-      handlePluginsAndFeatures(session, project, platformArtifacts, explodedBundles, resolutionHandler);
-
-      return targetPlatform;
+      return platformResolver.resolveDependencies(session, project, targetPlatform, reactorProjects,
+         resolverConfiguration);
    }
 
    private void handlePluginsAndFeatures(MavenSession session, MavenProject project,
@@ -274,12 +285,42 @@ public class AbstractTychoTargetPlatformResolver {
 
       @Override
       public void handlePlugin(String id, String version, File location, boolean unpack, MavenProject mavenProject) {
-         plugins.add(id + "_" + version);
+         // sources are delivered from several threads
+         synchronized (plugins) {
+            plugins.add(id + "_" + version);
+         }
          delegate.handlePlugin(id, version, location, unpack, mavenProject);
       }
 
       public Set<String> getPlugins() {
-         return plugins;
+         synchronized (plugins) {
+            return new LinkedHashSet<String>(plugins);
+         }
+      }
+   }
+
+   /**
+    * Passes the plugins on to the source resolution as they are delivered.
+    */
+   private static class SourceTargetCollector implements TargetPlatformResolutionHandler {
+      private final TargetPlatformResolutionHandler delegate;
+
+      private final SourceResolution sourceResolution;
+
+      SourceTargetCollector(TargetPlatformResolutionHandler delegate, SourceResolution sourceResolution) {
+         this.delegate = delegate;
+         this.sourceResolution = sourceResolution;
+      }
+
+      @Override
+      public void handleFeature(String id, String version, File location, MavenProject mavenProject) {
+         delegate.handleFeature(id, version, location, mavenProject);
+      }
+
+      @Override
+      public void handlePlugin(String id, String version, File location, boolean unpack, MavenProject mavenProject) {
+         delegate.handlePlugin(id, version, location, unpack, mavenProject);
+         sourceResolution.add(id + "_" + version);
       }
    }
 }
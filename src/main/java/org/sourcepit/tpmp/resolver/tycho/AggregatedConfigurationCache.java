@@ -0,0 +1,178 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp.resolver.tycho;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.model.Dependency;
+import org.eclipse.tycho.core.TargetPlatformConfiguration;
+import org.eclipse.tycho.core.shared.TargetEnvironment;
+import org.sourcepit.common.utils.lang.Exceptions;
+
+/**
+ * Persists the target platform configuration aggregated from all projects of a session, keyed by a checksum over the
+ * configuration files of these projects, their active profiles, the Maven settings and the properties affecting the
+ * configuration. Only the parts the aggregation fills in are stored.
+ */
+class AggregatedConfigurationCache {
+   private static final String CACHE_FILE = "aggregated-configuration.bin";
+
+   private static final int VERSION = 1;
+
+   private final File metadataDir;
+
+   public AggregatedConfigurationCache(File metadataDir) {
+      this.metadataDir = metadataDir;
+   }
+
+   /**
+    * Fills the given configuration, framework extensions and exploded bundles from the cache and returns
+    * <code>true</code>, if a configuration was stored for the given key. Otherwise nothing is touched.
+    */
+   public boolean load(String key, TargetPlatformConfiguration configuration, Set<Dependency> frameworkExtensions,
+      Set<String> explodedBundles) {
+      final File cacheFile = new File(metadataDir, CACHE_FILE);
+      if (!cacheFile.exists()) {
+         return false;
+      }
+
+      ObjectInputStream in = null;
+      try {
+         in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+         if (in.readInt() != VERSION || !key.equals(in.readUTF())) {
+            return false;
+         }
+
+         final List<TargetEnvironment> environments = new ArrayList<TargetEnvironment>();
+         final int size = in.readInt();
+         for (int i = 0; i < size; i++) {
+            environments.add(new TargetEnvironment(readString(in), readString(in), readString(in)));
+         }
+         final String executionEnvironment = readString(in);
+         final Boolean allowConflictingDependencies = (Boolean) in.readObject();
+         final boolean implicitTargetEnvironment = in.readBoolean();
+         final boolean resolveWithEEConstraints = in.readBoolean();
+         final boolean includePackedArtifacts = in.readBoolean();
+         final String pomDependencies = readString(in);
+         final String resolver = readString(in);
+         final List<Dependency> extraRequirements = readList(in);
+         final List<Dependency> extensions = readList(in);
+         final List<String> bundles = readList(in);
+
+         configuration.getEnvironments().addAll(environments);
+         configuration.setExecutionEnvironment(executionEnvironment);
+         configuration.setAllowConflictingDependencies(allowConflictingDependencies);
+         configuration.setImplicitTargetEnvironment(implicitTargetEnvironment);
+         configuration.setResolveWithEEContraints(resolveWithEEConstraints);
+         configuration.setIncludePackedArtifacts(includePackedArtifacts);
+         configuration.setPomDependencies(pomDependencies);
+         configuration.setResolver(resolver);
+         configuration.getExtraRequirements().addAll(extraRequirements);
+         frameworkExtensions.addAll(extensions);
+         explodedBundles.addAll(bundles);
+         return true;
+      }
+      catch (IOException e) {
+         // truncated or corrupt, aggregate again
+         return false;
+      }
+      catch (ClassNotFoundException e) {
+         return false;
+      }
+      catch (ClassCastException e) {
+         return false;
+      }
+      finally {
+         IOUtils.closeQuietly(in);
+      }
+   }
+
+   public void store(String key, TargetPlatformConfiguration configuration, Set<Dependency> frameworkExtensions,
+      Set<String> explodedBundles) {
+      final File cacheFile = new File(metadataDir, CACHE_FILE);
+      final File tmpFile = new File(metadataDir, CACHE_FILE + ".tmp");
+      try {
+         if (!metadataDir.mkdirs() && !metadataDir.isDirectory()) {
+            throw new IOException("Unable to create directory " + metadataDir);
+         }
+
+         final ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+         try {
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            out.writeInt(configuration.getEnvironments().size());
+            for (TargetEnvironment environment : configuration.getEnvironments()) {
+               writeString(out, environment.getOs());
+               writeString(out, environment.getWs());
+               writeString(out, environment.getArch());
+            }
+            writeString(out, configuration.getExecutionEnvironment());
+            out.writeObject(configuration.getAllowConflictingDependencies());
+            out.writeBoolean(configuration.isImplicitTargetEnvironment());
+            out.writeBoolean(configuration.isResolveWithEEConstraints());
+            out.writeBoolean(configuration.isIncludePackedArtifacts());
+            writeString(out, configuration.getPomDependencies());
+            writeString(out, configuration.getTargetPlatformResolver());
+            out.writeObject(new ArrayList<Dependency>(configuration.getExtraRequirements()));
+            out.writeObject(new ArrayList<Dependency>(frameworkExtensions));
+            out.writeObject(new ArrayList<String>(explodedBundles));
+         }
+         finally {
+            out.close();
+         }
+
+         Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException e) {
+         throw Exceptions.pipe(e);
+      }
+   }
+
+   public void clear() {
+      new File(metadataDir, CACHE_FILE).delete();
+   }
+
+   private static String readString(ObjectInputStream in) throws IOException {
+      return in.readBoolean() ? in.readUTF() : null;
+   }
+
+   private static void writeString(ObjectOutputStream out, String value) throws IOException {
+      out.writeBoolean(value != null);
+      if (value != null) {
+         out.writeUTF(value);
+      }
+   }
+
+   @SuppressWarnings("unchecked")
+   private static <T> List<T> readList(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      return (List<T>) in.readObject();
+   }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp.resolver.tycho;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Extracts single headers from the main section of a manifest without building a model of it. Header names are
+ * matched case insensitive, continuation lines are joined.
+ */
+final class ManifestHeaderScanner {
+   private ManifestHeaderScanner() {
+      super();
+   }
+
+   /**
+    * Returns the values of the given headers found in the manifest, keyed by the header names as passed in.
+    */
+   public static Map<String, String> scan(String manifest, String... headerNames) {
+      final Map<String, String> headers = new HashMap<String, String>(headerNames.length);
+
+      String currentName = null;
+      StringBuilder currentValue = null;
+
+      int lineStart = 0;
+      final int length = manifest.length();
+      while (lineStart < length) {
+         int lineEnd = lineStart;
+         while (lineEnd < length && manifest.charAt(lineEnd) != '\n' && manifest.charAt(lineEnd) != '\r') {
+            lineEnd++;
+         }
+
+         if (lineEnd == lineStart) {
+            // empty line ends the main section
+            break;
+         }
+
+         if (manifest.charAt(lineStart) == ' ') {
+            if (currentValue != null) {
+               currentValue.append(manifest, lineStart + 1, lineEnd);
+            }
+         }
+         else {
+            put(headers, currentName, currentValue);
+            currentName = null;
+            currentValue = null;
+
+            final int colon = manifest.indexOf(':', lineStart);
+            if (colon > lineStart && colon < lineEnd) {
+               final String name = matchName(manifest, lineStart, colon, headerNames);
+               if (name != null) {
+                  int valueStart = colon + 1;
+                  if (valueStart < lineEnd && manifest.charAt(valueStart) == ' ') {
+                     valueStart++;
+                  }
+                  currentName = name;
+                  currentValue = new StringBuilder(manifest.substring(valueStart, lineEnd));
+               }
+            }
+         }
+
+         lineStart = lineEnd;
+         if (lineStart < length && manifest.charAt(lineStart) == '\r') {
+            lineStart++;
+         }
+         if (lineStart < length && manifest.charAt(lineStart) == '\n') {
+            lineStart++;
+         }
+      }
+      put(headers, currentName, currentValue);
+
+      return headers;
+   }
+
+   private static void put(Map<String, String> headers, String name, StringBuilder value) {
+      if (name != null && !headers.containsKey(name)) {
+         headers.put(name, value.toString().trim());
+      }
+   }
+
+   private static String matchName(String manifest, int start, int end, String... headerNames) {
+      for (String headerName : headerNames) {
+         if (headerName.length() == end - start && manifest.regionMatches(true, start, headerName, 0, end - start)) {
+            return headerName;
+         }
+      }
+      return null;
+   }
+}
@@ -19,6 +19,7 @@ package org.sourcepit.tpmp.resolver.tycho;
 import static com.google.common.base.Optional.fromNullable;
 
 import java.io.File;
+import java.lang.reflect.Field;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +35,8 @@ import org.eclipse.tycho.ReactorProject;
 import org.eclipse.tycho.core.TargetPlatformConfiguration;
 import org.eclipse.tycho.core.TychoConstants;
 import org.eclipse.tycho.core.TychoProject;
+import org.eclipse.tycho.core.osgitools.BundleReader;
+import org.eclipse.tycho.core.osgitools.DefaultBundleReader;
 import org.eclipse.tycho.core.osgitools.DefaultReactorProject;
 import org.eclipse.tycho.core.utils.TychoProjectUtils;
 import org.eclipse.tycho.p2.resolver.facade.P2ResolutionResult.Entry;
@@ -49,6 +52,9 @@ public class MavenProjectFacade {
    @Inject
    private TychoResolver resolver;
 
+   @Inject
+   private BundleReader bundleReader;
+
    public TychoProject getTychoProject(MavenProject project) {
       return projectTypes.get(project.getPackaging());
    }
@@ -106,6 +112,44 @@ public class MavenProjectFacade {
       }
    }
 
+   public void setupProject(MavenSession session, MavenProject project) {
+      resolver.setupProject(session, project, DefaultReactorProject.adapt(project));
+   }
+
+   /**
+    * Sets up the project again, so that Tycho picks up changes of its manifest or descriptors. Tycho caches bundle
+    * manifests by location for the whole session, so the cached manifest of the project is dropped first.
+    * 
+    * @return <code>false</code> if the cache couldn't be cleared and the project may still see its old manifest
+    */
+   public boolean refreshProject(MavenSession session, MavenProject project) {
+      final boolean invalidated = invalidateManifest(project.getBasedir());
+      setupProject(session, project);
+      return invalidated;
+   }
+
+   private boolean invalidateManifest(File location) {
+      if (!(bundleReader instanceof DefaultBundleReader)) {
+         return false;
+      }
+      try {
+         final Field field = DefaultBundleReader.class.getDeclaredField("manifestCache");
+         field.setAccessible(true);
+         final Map<?, ?> manifestCache = (Map<?, ?>) field.get(bundleReader);
+         manifestCache.remove(location.getAbsolutePath());
+         return true;
+      }
+      catch (NoSuchFieldException e) {
+         return false;
+      }
+      catch (IllegalAccessException e) {
+         return false;
+      }
+      catch (ClassCastException e) {
+         return false;
+      }
+   }
+
    public TargetPlatformConfiguration getTargetPlatformConfiguration(MavenSession session, MavenProject project) {
       setupSessionLazy(session);
       return TychoProjectUtils.getTargetPlatformConfiguration(project);
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp.resolver.tycho;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Tells whether the content of a p2 repository may have changed, from the last modification of its index files. Only
+ * the repository itself is inspected, children of a composite repository that are replaced in place go unnoticed.
+ */
+final class RepositoryStamps {
+   private static final String[] INDEX_FILES = { "p2.index", "compositeContent.jar", "compositeContent.xml",
+      "compositeArtifacts.jar", "compositeArtifacts.xml", "content.jar", "content.xml", "content.xml.xz",
+      "artifacts.jar", "artifacts.xml", "artifacts.xml.xz" };
+
+   private static final int TIMEOUT_MILLIS = 10000;
+
+   private RepositoryStamps() {
+      super();
+   }
+
+   /**
+    * Returns a stamp that changes whenever one of the index files of the repository changes, or <code>null</code> if
+    * the repository can't be inspected and thus must be considered changed.
+    */
+   public static String getStamp(String repositoryUrl, boolean offline) {
+      final String baseUrl = repositoryUrl.endsWith("/") ? repositoryUrl : repositoryUrl + "/";
+      if (baseUrl.startsWith("file:")) {
+         return getFileStamp(baseUrl);
+      }
+      if (baseUrl.startsWith("http:") || baseUrl.startsWith("https:")) {
+         // Tycho works with the metadata it cached before, which doesn't change while offline
+         return offline ? "offline" : getHttpStamp(baseUrl);
+      }
+      return null;
+   }
+
+   private static String getFileStamp(String baseUrl) {
+      final File dir;
+      try {
+         dir = new File(new URI(baseUrl));
+      }
+      catch (URISyntaxException e) {
+         return null;
+      }
+      catch (IllegalArgumentException e) {
+         return null;
+      }
+      final StringBuilder stamp = new StringBuilder();
+      for (String indexFile : INDEX_FILES) {
+         final File file = new File(dir, indexFile);
+         if (file.isFile()) {
+            appendStamp(stamp, indexFile, String.valueOf(file.lastModified()), String.valueOf(file.length()));
+         }
+      }
+      return stamp.toString();
+   }
+
+   private static String getHttpStamp(String baseUrl) {
+      final StringBuilder stamp = new StringBuilder();
+      for (String indexFile : INDEX_FILES) {
+         try {
+            final URLConnection urlConnection = new URL(baseUrl + indexFile).openConnection();
+            if (!(urlConnection instanceof HttpURLConnection)) {
+               return null;
+            }
+            // HEAD responses have no body, so the connection is kept alive for the next index file
+            final HttpURLConnection connection = (HttpURLConnection) urlConnection;
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+
+            final int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+               final String lastModified = connection.getHeaderField("Last-Modified");
+               final String eTag = connection.getHeaderField("ETag");
+               if (lastModified == null && eTag == null) {
+                  // nothing that would tell about a change
+                  return null;
+               }
+               appendStamp(stamp, indexFile, lastModified + "/" + eTag, connection.getHeaderField("Content-Length"));
+            }
+            else if (responseCode != HttpURLConnection.HTTP_NOT_FOUND) {
+               // e.g. requires authentication, which we don't know about
+               return null;
+            }
+         }
+         catch (IOException e) {
+            return null;
+         }
+      }
+      return stamp.toString();
+   }
+
+   private static void appendStamp(StringBuilder stamp, String indexFile, String modified, String length) {
+      stamp.append(indexFile);
+      stamp.append(':');
+      stamp.append(modified);
+      stamp.append(':');
+      stamp.append(length);
+      stamp.append(';');
+   }
+}
@@ -79,7 +79,8 @@ public class TychoProjectTargetPlatformResolver extends AbstractTychoTargetPlatf
 
       final ContentCollector contentCollector = new ContentCollector(handler);
 
-      doResolve(session, project, DefaultReactorProject.adapt(session), includeSource, explodedBundles,
+      // projects are already resolved in parallel
+      doResolve(session, project, DefaultReactorProject.adapt(session), includeSource, 1, explodedBundles,
          extraRequirements, frameworkExtensions, contentCollector);
    }
 }
@@ -17,24 +17,34 @@
 package org.sourcepit.tpmp.resolver.tycho;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.execution.MavenExecutionRequest;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.model.Build;
 import org.apache.maven.model.Dependency;
 import org.apache.maven.model.Model;
 import org.apache.maven.model.Plugin;
+import org.apache.maven.model.Profile;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.logging.Logger;
 import org.eclipse.tycho.ArtifactKey;
@@ -50,11 +60,16 @@ import org.eclipse.tycho.core.shared.TargetEnvironment;
 import org.eclipse.tycho.core.utils.TychoProjectUtils;
 import org.eclipse.tycho.p2.metadata.IDependencyMetadata;
 import org.eclipse.tycho.p2.repository.RepositoryLayoutHelper;
+import org.sourcepit.common.utils.lang.Exceptions;
 import org.sourcepit.common.utils.props.LinkedPropertiesMap;
 import org.sourcepit.common.utils.props.PropertiesMap;
+import org.sourcepit.tpmp.change.ChecksumUtils;
+import org.sourcepit.tpmp.change.TargetPlatformConfigurationChangeDiscoverer;
 import org.sourcepit.tpmp.ee.ExecutionEnvironmentSelector;
 import org.sourcepit.tpmp.resolver.TargetPlatformConfigurationHandler;
+import org.sourcepit.tpmp.resolver.ResolutionManifest;
 import org.sourcepit.tpmp.resolver.TargetPlatformResolutionHandler;
+import org.sourcepit.tpmp.resolver.TargetPlatformResolutionOptions;
 import org.sourcepit.tpmp.resolver.TargetPlatformResolver;
 import org.sourcepit.tpmp.resolver.tycho.TychoSourceIUResolver.InstallableUnitDAO;
 
@@ -62,29 +77,83 @@ import org.sourcepit.tpmp.resolver.tycho.TychoSourceIUResolver.InstallableUnitDA
 public class TychoSessionTargetPlatformResolver extends AbstractTychoTargetPlatformResolver
    implements
       TargetPlatformResolver {
+   private static final String FINGERPRINT_FILE = "session-fingerprint";
+
+   private static final String RESOLUTION_FILE = "session-resolution";
+
+   private static final int MAX_RECORDED_RESOLUTIONS = 32;
+
+   private static final Set<String> RELEVANT_SYSTEM_PROPERTIES = new HashSet<String>(Arrays.asList("os.name",
+      "os.arch", "java.home", "java.specification.version"));
+
    @Inject
    private ExecutionEnvironmentSelector eeSelector;
 
    @Inject
    private Logger logger;
 
+   @Inject
+   private TargetPlatformConfigurationChangeDiscoverer changeDiscoverer;
+
    @Override
    public boolean isRelyingOnCachedFiles() {
       return false;
    }
 
    @Override
-   public void resolve(MavenSession session, File platformDir, boolean includeSource, boolean forceUpdate,
+   public void resolve(MavenSession session, File platformDir, TargetPlatformResolutionOptions options,
       TargetPlatformConfigurationHandler configHandler, TargetPlatformResolutionHandler resolutionHandler) {
+      final boolean includeSource = options.isIncludeSource();
+      final boolean forceUpdate = options.isForceUpdate();
+      final boolean skipUnchanged = options.isSkipUnchanged();
+      final File resolutionManifestDir = options.getResolutionManifestDir();
+      final File metadataDir = new File(platformDir, ".tpmp");
+
+      final String configurationKey;
       final TargetPlatformConfiguration aggregatedConfiguration = new TargetPlatformConfiguration();
       final LinkedHashSet<String> explodedBundles = new LinkedHashSet<String>();
       final LinkedHashSet<Dependency> frameworkExtensions = new LinkedHashSet<Dependency>();
-      aggregateTargetPlatformConfigurations(session, aggregatedConfiguration, frameworkExtensions, explodedBundles);
+      try {
+         configurationKey = computeAggregationKey(session, metadataDir);
+         loadOrAggregateTargetPlatformConfigurations(session, metadataDir, configurationKey, forceUpdate,
+            aggregatedConfiguration, frameworkExtensions, explodedBundles);
+      }
+      finally {
+         changeDiscoverer.flushTargetPlatformConfigurationStatusCache(metadataDir);
+      }
       handleConfiguration(aggregatedConfiguration, configHandler);
 
+      // inspecting the repositories takes requests, so only if the fingerprint is used at all
+      final boolean replay = resolutionManifestDir != null;
+      final String fingerprint = skipUnchanged || replay ? computeSessionFingerprint(session, configurationKey,
+         includeSource) : null;
+      final File fingerprintFile = new File(metadataDir, FINGERPRINT_FILE);
+      final File resolutionFile = new File(metadataDir, RESOLUTION_FILE);
+      final boolean reuse = !forceUpdate && !session.getRequest().isUpdateSnapshots();
+      if (skipUnchanged && reuse && fingerprint != null && isUpToDate(platformDir, fingerprintFile, fingerprint)
+         && ResolutionManifest.isMaterialized(resolutionFile, platformDir)) {
+         logger.info("Target platform configuration and repositories are unchanged, skipping resolution");
+         return;
+      }
+
+      // a failing resolution must not leave the platform marked as up to date
+      FileUtils.deleteQuietly(fingerprintFile);
+
+      final File manifestFile = replay && fingerprint != null ? new File(resolutionManifestDir, fingerprint) : null;
+      if (reuse && manifestFile != null
+         && ResolutionManifest.replay(manifestFile, session.getProjects(), resolutionHandler)) {
+         logger.info("Replayed the resolution of an identical configuration from " + manifestFile);
+         // marks the recording as recently used, so that it survives the eviction
+         manifestFile.setLastModified(System.currentTimeMillis());
+         copyFile(manifestFile, resolutionFile);
+         writeFingerprint(fingerprintFile, fingerprint);
+         return;
+      }
+
       final MavenProject project = setupAggregatedProject(session, aggregatedConfiguration);
 
-      final ContentCollector contentCollector = new ContentCollector(resolutionHandler);
+      final ResolutionManifest manifest = new ResolutionManifest(resolutionHandler);
+      final ContentCollector contentCollector = new ContentCollector(manifest);
 
       final List<ReactorProject> reactorProjects = new ArrayList<ReactorProject>();
       reactorProjects.add(DefaultReactorProject.adapt(project));
@@ -92,8 +161,164 @@ public class TychoSessionTargetPlatformResolver extends AbstractTychoTargetPlatf
       final List<Dependency> extraRequirements = TychoProjectUtils.getTargetPlatformConfiguration(project)
          .getExtraRequirements();
 
-      doResolve(session, project, reactorProjects, includeSource, explodedBundles, extraRequirements,
-         frameworkExtensions, contentCollector);
+      doResolve(session, project, reactorProjects, includeSource, options.getSourceThreads(), explodedBundles,
+         extraRequirements, frameworkExtensions, contentCollector);
+
+      // tells whether everything is still in place when the resolution is about to be skipped
+      manifest.write(resolutionFile);
+      if (manifestFile != null) {
+         manifest.write(manifestFile);
+         ResolutionManifest.evict(resolutionManifestDir, MAX_RECORDED_RESOLUTIONS);
+      }
+      if (fingerprint != null) {
+         writeFingerprint(fingerprintFile, fingerprint);
+      }
+   }
+
+   private static void copyFile(File srcFile, File destFile) {
+      try {
+         FileUtils.copyFile(srcFile, destFile);
+      }
+      catch (IOException e) {
+         throw Exceptions.pipe(e);
+      }
+   }
+
+   private static void writeFingerprint(File fingerprintFile, String fingerprint) {
+      try {
+         FileUtils.writeStringToFile(fingerprintFile, fingerprint, "UTF-8");
+      }
+      catch (IOException e) {
+         throw Exceptions.pipe(e);
+      }
+   }
+
+   private static boolean isUpToDate(File platformDir, File fingerprintFile, String fingerprint) {
+      if (!platformDir.isDirectory() || !fingerprintFile.isFile()) {
+         return false;
+      }
+      try {
+         return fingerprint.equals(FileUtils.readFileToString(fingerprintFile, "UTF-8"));
+      }
+      catch (IOException e) {
+         return false;
+      }
+   }
+
+   /**
+    * @return the fingerprint or <code>null</code> if a repository can't be inspected, so that nothing is reused
+    */
+   private String computeSessionFingerprint(MavenSession session, String configurationKey, boolean includeSource) {
+      final StringBuilder fingerprint = new StringBuilder();
+      fingerprint.append(configurationKey);
+      fingerprint.append("|includeSource=");
+      fingerprint.append(includeSource);
+      fingerprint.append("|localRepository=");
+      fingerprint.append(session.getLocalRepository().getBasedir());
+      // the repositories the aggregated project resolves from, as set up in setupAggregatedProject
+      final Map<String, ArtifactRepository> repositories = new TreeMap<String, ArtifactRepository>();
+      for (MavenProject project : session.getProjects()) {
+         for (ArtifactRepository repository : project.getRemoteArtifactRepositories()) {
+            repositories.put(repository.getId() + "=" + repository.getUrl() + "@" + repository.getLayout().getId(),
+               repository);
+         }
+      }
+      for (Entry<String, ArtifactRepository> entry : repositories.entrySet()) {
+         fingerprint.append('|');
+         fingerprint.append(entry.getKey());
+         // the content of a p2 repository may change while its URL stays the same
+         if ("p2".equals(entry.getValue().getLayout().getId())) {
+            final String stamp = RepositoryStamps.getStamp(entry.getValue().getUrl(), session.isOffline());
+            if (stamp == null) {
+               logger.debug("Unable to tell whether repository " + entry.getValue().getUrl() + " changed");
+               return null;
+            }
+            fingerprint.append('#');
+            fingerprint.append(stamp);
+         }
+      }
+      try {
+         return ChecksumUtils.calculateHash(fingerprint.toString().getBytes("UTF-8"), "UTF-8");
+      }
+      catch (UnsupportedEncodingException e) {
+         throw Exceptions.pipe(e);
+      }
+   }
+
+   private void loadOrAggregateTargetPlatformConfigurations(MavenSession session, File metadataDir, String key,
+      boolean forceUpdate, TargetPlatformConfiguration aggregatedConfiguration,
+      LinkedHashSet<Dependency> frameworkExtensions, LinkedHashSet<String> explodedBundles) {
+      final AggregatedConfigurationCache cache = new AggregatedConfigurationCache(metadataDir);
+      if (!forceUpdate && cache.load(key, aggregatedConfiguration, frameworkExtensions, explodedBundles)) {
+         logger.debug("Using cached aggregated target platform configuration");
+         return;
+      }
+
+      aggregateTargetPlatformConfigurations(session, aggregatedConfiguration, frameworkExtensions, explodedBundles);
+
+      // filters are plain Tycho objects without a persistent form, so configurations using them are not cached
+      if (aggregatedConfiguration.getFilters().isEmpty()) {
+         cache.store(key, aggregatedConfiguration, frameworkExtensions, explodedBundles);
+      }
+      else {
+         cache.clear();
+      }
+   }
+
+   private String computeAggregationKey(MavenSession session, File metadataDir) {
+      final String configurationChecksum = changeDiscoverer.computeTargetPlatformConfigurationChecksum(metadataDir,
+         session, session.getProjects());
+      return computeAggregationKey(configurationChecksum, session.getRequest(), session.getProjects());
+   }
+
+   static String computeAggregationKey(String configurationChecksum, MavenExecutionRequest request,
+      Collection<MavenProject> projects) {
+      final StringBuilder key = new StringBuilder();
+      key.append(configurationChecksum);
+      // properties passed on the command line may change the configuration without touching a file
+      final Properties userProperties = request.getUserProperties();
+      for (String name : new TreeSet<String>(userProperties.stringPropertyNames())) {
+         appendProperty(key, name, userProperties.getProperty(name));
+      }
+      // Tycho derives the implicit target environment and execution environment from the running JVM
+      final Properties systemProperties = request.getSystemProperties();
+      for (String name : new TreeSet<String>(systemProperties.stringPropertyNames())) {
+         if (RELEVANT_SYSTEM_PROPERTIES.contains(name) || name.startsWith("tycho.")) {
+            appendProperty(key, name, systemProperties.getProperty(name));
+         }
+      }
+      // profiles may be activated by the settings, the environment or the command line
+      final Set<String> profiles = new TreeSet<String>();
+      for (MavenProject project : projects) {
+         for (Profile profile : project.getActiveProfiles()) {
+            profiles.add(project.getId() + ":" + profile.getId());
+         }
+      }
+      for (String profile : profiles) {
+         key.append("|profile=");
+         key.append(profile);
+      }
+      key.append("|userSettings=");
+      key.append(getSettingsChecksum(request.getUserSettingsFile()));
+      key.append("|globalSettings=");
+      key.append(getSettingsChecksum(request.getGlobalSettingsFile()));
+      try {
+         return ChecksumUtils.calculateHash(key.toString().getBytes("UTF-8"), "UTF-8");
+      }
+      catch (UnsupportedEncodingException e) {
+         throw Exceptions.pipe(e);
+      }
+   }
+
+   private static void appendProperty(StringBuilder key, String name, String value) {
+      key.append('|');
+      key.append(name);
+      key.append('=');
+      key.append(value);
+   }
+
+   private static String getSettingsChecksum(File settingsFile) {
+      return settingsFile != null && settingsFile.isFile() ? ChecksumUtils.calculateHash(settingsFile, "UTF-8") : "-";
    }
 
    private void handleConfiguration(final TargetPlatformConfiguration aggregatedConfiguration,
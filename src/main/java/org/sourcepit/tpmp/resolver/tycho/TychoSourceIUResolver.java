@@ -18,15 +18,24 @@ package org.sourcepit.tpmp.resolver.tycho;
 
 import static org.sourcepit.common.utils.lang.Exceptions.pipe;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -34,24 +43,34 @@ import javax.inject.Named;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.logging.Logger;
-import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.sisu.equinox.EquinoxServiceFactory;
+import org.eclipse.tycho.ArtifactType;
+import org.eclipse.tycho.artifacts.IllegalArtifactReferenceException;
 import org.eclipse.tycho.artifacts.TargetPlatform;
+import org.eclipse.tycho.core.shared.MavenLogger;
 import org.eclipse.tycho.osgi.adapters.MavenLoggerAdapter;
 import org.eclipse.tycho.p2.resolver.facade.P2ResolutionResult;
 import org.eclipse.tycho.p2.resolver.facade.P2ResolutionResult.Entry;
 import org.eclipse.tycho.p2.resolver.facade.P2Resolver;
 import org.eclipse.tycho.p2.resolver.facade.P2ResolverFactory;
-import org.sourcepit.common.manifest.osgi.BundleManifest;
-import org.sourcepit.common.manifest.osgi.BundleSymbolicName;
-import org.sourcepit.common.manifest.osgi.Version;
-import org.sourcepit.common.manifest.osgi.resource.BundleManifestResourceImpl;
+import org.sourcepit.tpmp.WorkerPool;
 import org.sourcepit.tpmp.resolver.TargetPlatformResolutionHandler;
 
 import com.google.common.base.Optional;
 
 @Named
 public class TychoSourceIUResolver {
+   private static final int BATCH_SIZE = 500;
+
+   // started while binaries are still delivered, so don't wait for too many of them
+   private static final int STREAMING_BATCH_SIZE = 100;
+
+   private static final String BUNDLE_SYMBOLIC_NAME = "Bundle-SymbolicName";
+
+   private static final String BUNDLE_VERSION = "Bundle-Version";
+
+   private static final String ECLIPSE_SOURCE_BUNDLE = "Eclipse-SourceBundle";
+
    @Inject
    private MavenProjectFacade projectFacade;
 
@@ -61,66 +80,250 @@ public class TychoSourceIUResolver {
    @Inject
    private Logger logger;
 
-   public void resolveSources(MavenSession session, final TargetPlatform targetPlatform,
+   // built once per target platform, which is dropped by Tycho after the resolution
+   private final Map<Object, Map<String, String[]>> sourceIndexes = new WeakHashMap<Object, Map<String, String[]>>();
+
+   public void resolveSources(MavenSession session, TargetPlatform targetPlatform,
       Collection<String> sourceTargetBundles, TargetPlatformResolutionHandler handler) {
-      final Set<String> sourceTargets = new HashSet<String>(sourceTargetBundles);
+      resolveSources(session, targetPlatform, sourceTargetBundles, 1, handler);
+   }
+
+   /**
+    * Resolves the source bundles of the given target bundles, spreading the batches over the given number of threads.
+    * The handler must be thread-safe if more than one thread is used.
+    */
+   public void resolveSources(MavenSession session, TargetPlatform targetPlatform,
+      Collection<String> sourceTargetBundles, int threads, TargetPlatformResolutionHandler handler) {
+      final Set<String> sourceTargets = new LinkedHashSet<String>(sourceTargetBundles);
       if (sourceTargets.isEmpty()) {
          return;
       }
 
-      final Map<String, MavenProject> projectsMap = projectFacade.createVidToProjectMap(session);
+      // smaller batches if there are threads left idle otherwise
+      final int workers = Math.max(1, threads);
+      final int batchSize = Math.max(1, Math.min(BATCH_SIZE, (sourceTargets.size() + workers - 1) / workers));
+
+      final SourceResolution sourceResolution = new SourceResolution(session, targetPlatform, workers, batchSize,
+         handler);
+      try {
+         for (String targetKey : sourceTargets) {
+            sourceResolution.add(targetKey);
+         }
+         sourceResolution.finish();
+      }
+      finally {
+         sourceResolution.shutdown();
+      }
+   }
+
+   /**
+    * Starts a resolution of source bundles that resolves a batch as soon as enough target bundles were added, while
+    * further target bundles are still coming in. The batches run on their own pool of the given number of threads,
+    * so the handler must be thread-safe. The caller must {@link SourceResolution#finish() finish} and
+    * {@link SourceResolution#shutdown() shut down} the resolution.
+    */
+   public SourceResolution startSourceResolution(MavenSession session, TargetPlatform targetPlatform, int threads,
+      TargetPlatformResolutionHandler handler) {
+      final int workers = Math.max(1, threads);
+      if (workers > 1) {
+         logger.warn("Resolving source bundles with " + workers + " threads. It isn't known whether Tycho's "
+            + "target platform may be used concurrently, set tpmp.sourceThreads=1 if the resolution fails.");
+      }
+      return new SourceResolution(session, targetPlatform, workers, STREAMING_BATCH_SIZE, handler);
+   }
+
+   public final class SourceResolution {
+      private final TargetPlatform targetPlatform;
+
+      private final Map<String, MavenProject> projectsMap;
+
+      private final Map<String, String[]> sourceIndex;
+
+      private final int batchSize;
+
+      private final TargetPlatformResolutionHandler handler;
+
+      private final WorkerPool workerPool;
+
+      // different bundles may share a source bundle
+      private final Set<String> sourceKeys = new HashSet<String>();
+
+      private List<String[]> batch = new ArrayList<String[]>();
+
+      SourceResolution(MavenSession session, TargetPlatform targetPlatform, int threads, int batchSize,
+         TargetPlatformResolutionHandler handler) {
+         this.targetPlatform = targetPlatform;
+         this.projectsMap = projectFacade.createVidToProjectMap(session);
+         this.sourceIndex = getSourceIndex(targetPlatform);
+         this.batchSize = batchSize;
+         this.handler = handler;
+         this.workerPool = new WorkerPool("sources", threads);
+      }
+
+      /**
+       * Adds the key (id_version) of a bundle whose source bundle is to be resolved.
+       */
+      public synchronized void add(String targetKey) {
+         final String[] source = sourceIndex.get(targetKey);
+         if (source != null && sourceKeys.add(source[0] + "_" + source[1])) {
+            batch.add(source);
+            if (batch.size() >= batchSize) {
+               submitBatch();
+            }
+         }
+      }
+
+      /**
+       * Resolves the remaining source bundles and waits until all batches are done.
+       */
+      public void finish() {
+         synchronized (this) {
+            submitBatch();
+         }
+         workerPool.join();
+      }
+
+      public void shutdown() {
+         workerPool.shutdown();
+      }
+
+      private void submitBatch() {
+         if (batch.isEmpty()) {
+            return;
+         }
+         final List<String[]> sources = batch;
+         batch = new ArrayList<String[]>();
+         workerPool.execute(new Runnable() {
+            @Override
+            public void run() {
+               resolveBatch(targetPlatform, sources, projectsMap, handler);
+            }
+         });
+      }
+   }
+
+   private void resolveBatch(TargetPlatform targetPlatform, List<String[]> batch,
+      Map<String, MavenProject> projectsMap, TargetPlatformResolutionHandler handler) {
+      final Map<String, String[]> pending = new LinkedHashMap<String, String[]>();
+
+      // a failing batch is retried one by one, so don't report its resolution errors as build errors
+      final P2Resolver resolver = createResolver(new DebugLogger(new MavenLoggerAdapter(logger, false)));
+      try {
+         for (String[] source : batch) {
+            pending.put(source[0] + "_" + source[1], source);
+            resolver.addDependency(ArtifactType.TYPE_INSTALLABLE_UNIT, source[0], toStrictVersionRange(source[1]));
+         }
+
+         // a single p2 resolution for the whole batch, without a project as root
+         for (P2ResolutionResult result : resolver.resolveDependencies(targetPlatform, null)) {
+            for (Entry entry : result.getArtifacts()) {
+               final String[] source = pending.remove(entry.getId() + "_" + entry.getVersion());
+               if (source != null) {
+                  handleSource(entry, source, projectsMap, handler);
+               }
+            }
+         }
+      }
+      catch (IllegalArtifactReferenceException e) {
+         logger.debug("Failed to resolve source bundles in a batch, resolving them one by one", e);
+      }
+      catch (RuntimeException e) {
+         logger.debug("Failed to resolve source bundles in a batch, resolving them one by one", e);
+      }
+
+      // whatever the batch didn't deliver, e.g. source bundles filtered for other environments
+      if (!pending.isEmpty()) {
+         final P2Resolver unitResolver = createResolver();
+         for (String[] source : pending.values()) {
+            final P2ResolutionResult result = resolve(targetPlatform, unitResolver, source[0], source[1]);
+            for (Entry entry : result.getArtifacts()) {
+               handleSource(entry, source, projectsMap, handler);
+            }
+         }
+      }
+   }
 
-      final P2Resolver resolver = createResolver();
+   private void handleSource(Entry entry, String[] source, Map<String, MavenProject> projectsMap,
+      TargetPlatformResolutionHandler handler) {
+      final Optional<MavenProject> mavenProject = projectFacade.getMavenProject(projectsMap, source[2], source[3]);
 
+      final File location = projectFacade.getLocation(entry, mavenProject);
+      if (location != null && location.exists()) {
+         handler.handlePlugin(entry.getId(), entry.getVersion(), location, false, mavenProject.orNull());
+      }
+   }
+
+   private Map<String, String[]> getSourceIndex(TargetPlatform targetPlatform) {
+      synchronized (sourceIndexes) {
+         final Map<String, String[]> sourceIndex = sourceIndexes.get(targetPlatform);
+         if (sourceIndex != null) {
+            return sourceIndex;
+         }
+      }
+
+      final Map<String, String[]> sourceIndex = createSourceIndex(targetPlatform);
+
+      synchronized (sourceIndexes) {
+         final Map<String, String[]> existing = sourceIndexes.get(targetPlatform);
+         if (existing != null) {
+            return existing;
+         }
+         sourceIndexes.put(targetPlatform, sourceIndex);
+         return sourceIndex;
+      }
+   }
+
+   /**
+    * Maps the key (id_version) of each bundle to the id, version, target id and target version of the first source
+    * bundle found for it.
+    */
+   private Map<String, String[]> createSourceIndex(TargetPlatform targetPlatform) {
       final ClassLoader classLoader = targetPlatform.getClass().getClassLoader();
 
       final P2TargetPlatformDAO tpDAO = new P2TargetPlatformDAO(classLoader);
       final InstallableUnitDAO iuDAO = tpDAO.getInstallableUnitDAO();
 
+      final Map<String, String[]> sourceIndex = new HashMap<String, String[]>();
       for (final Object unit : tpDAO.getInstallableUnits(targetPlatform)) {
-         if (sourceTargets.isEmpty()) {
-            return;
-         }
-
          if (hasSourceCapability(iuDAO, unit)) {
             final String symbolicName = iuDAO.getId(unit);
             final String version = iuDAO.getVersion(unit).toString();
 
-            final BundleManifest manifest = getManifest(iuDAO, unit);
+            final String manifest = getManifest(iuDAO, unit);
 
-            String[] targetIdAndVersion = getTargetIdAndVersion(manifest);
+            String[] targetIdAndVersion = manifest == null ? null : getTargetIdAndVersion(manifest);
             if (targetIdAndVersion == null) {
                targetIdAndVersion = getTargetIdAndVersion(symbolicName, version);
             }
 
             if (targetIdAndVersion != null) {
                final String targetKey = targetIdAndVersion[0] + "_" + targetIdAndVersion[1];
-               if (sourceTargets.remove(targetKey)) {
-                  final P2ResolutionResult result = resolve(targetPlatform, resolver, symbolicName, version);
-                  for (Entry entry : result.getArtifacts()) {
-                     final Optional<MavenProject> mavenProject = projectFacade.getMavenProject(projectsMap,
-                        targetIdAndVersion[0], targetIdAndVersion[1]);
-
-                     final File location = projectFacade.getLocation(entry, mavenProject);
-                     if (location != null && location.exists()) {
-                        handler.handlePlugin(entry.getId(), entry.getVersion(), location, false, mavenProject.orNull());
-                     }
-                  }
+               if (!sourceIndex.containsKey(targetKey)) {
+                  sourceIndex.put(targetKey, new String[] { symbolicName, version, targetIdAndVersion[0],
+                     targetIdAndVersion[1] });
                }
             }
          }
       }
+      return sourceIndex;
    }
 
    private static P2ResolutionResult resolve(final TargetPlatform targetPlatform, final P2Resolver resolver,
       final String symbolicName, String version) {
-      final String strictVersion = "[" + version + "," + version + "]";
-      return resolver.resolveInstallableUnit(targetPlatform, symbolicName, strictVersion);
+      return resolver.resolveInstallableUnit(targetPlatform, symbolicName, toStrictVersionRange(version));
+   }
+
+   private static String toStrictVersionRange(String version) {
+      return "[" + version + "," + version + "]";
    }
 
    private P2Resolver createResolver() {
+      return createResolver(new MavenLoggerAdapter(logger, false));
+   }
+
+   private P2Resolver createResolver(MavenLogger mavenLogger) {
       final P2ResolverFactory factory = equinox.getService(P2ResolverFactory.class);
-      final P2Resolver resolver = factory.createResolver(new MavenLoggerAdapter(logger, false));
+      final P2Resolver resolver = factory.createResolver(mavenLogger);
       return resolver;
    }
 
@@ -135,26 +338,29 @@ public class TychoSourceIUResolver {
       return new String[] { targetId, version };
    }
 
-   private String[] getTargetIdAndVersion(BundleManifest manifest) {
+   private String[] getTargetIdAndVersion(String manifest) {
       String targetId = null;
       String version = null;
 
-      final BundleSymbolicName bundleSymbolicName = manifest.getBundleSymbolicName();
-      final Version bundleVersion = manifest.getBundleVersion();
+      final Map<String, String> headers = ManifestHeaderScanner.scan(manifest, BUNDLE_SYMBOLIC_NAME, BUNDLE_VERSION,
+         ECLIPSE_SOURCE_BUNDLE);
+
+      final String bundleSymbolicName = headers.get(BUNDLE_SYMBOLIC_NAME);
+      final String bundleVersion = headers.get(BUNDLE_VERSION);
       if (bundleSymbolicName != null && bundleVersion != null) {
-         String symbolicName = bundleSymbolicName.getSymbolicName();
-         String value = manifest.getHeaderValue("Eclipse-SourceBundle");
+         String symbolicName = bundleSymbolicName.split(";")[0].trim();
+         String value = headers.get(ECLIPSE_SOURCE_BUNDLE);
          if (value == null) {
             if (symbolicName.endsWith(".source")) {
                targetId = symbolicName.substring(0, symbolicName.length() - ".source".length());
             }
-            version = bundleVersion.toFullString();
+            version = toFullVersion(bundleVersion);
          }
          else {
             String[] segments = value.split(";");
-            targetId = segments[0];
+            targetId = segments[0].trim();
             for (int i = 1; i < segments.length; i++) {
-               String segment = segments[i];
+               String segment = segments[i].trim();
                if (segment.startsWith("version=")) {
                   segment = segment.substring("version=".length());
                   if (segment.startsWith("\"")) {
@@ -176,37 +382,102 @@ public class TychoSourceIUResolver {
       return new String[] { targetId, version };
    }
 
-   private static BundleManifest getManifest(InstallableUnitDAO iuDao, Object unit) {
+   // major.minor.micro[.qualifier], as an OSGi version is printed by p2
+   private static String toFullVersion(String version) {
+      final String[] segments = version.trim().split("\\.", 4);
+      final StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 3; i++) {
+         if (i > 0) {
+            sb.append('.');
+         }
+         sb.append(i < segments.length && !segments[i].isEmpty() ? segments[i] : "0");
+      }
+      if (segments.length == 4 && !segments[3].isEmpty()) {
+         sb.append('.');
+         sb.append(segments[3]);
+      }
+      return sb.toString();
+   }
+
+   private static String getManifest(InstallableUnitDAO iuDao, Object unit) {
       final TouchpointDataDAO tdDAO = iuDao.getTouchpointDataDAO();
       final TouchpointInstructionDAO tiDAO = tdDAO.getTouchpointInstructionDAO();
       for (Object point : iuDao.getTouchpointData(unit)) {
          Object instruction = tdDAO.getInstruction(point, "manifest");
          if (instruction != null) {
-            String manifest = tiDAO.getBody(instruction);
-
-            Resource resource = new BundleManifestResourceImpl();
-            try {
-               resource.load(new ByteArrayInputStream(manifest.getBytes("UTF-8")), null);
-            }
-            catch (IOException e) {
-               throw pipe(e);
-            }
-            return (BundleManifest) resource.getContents().get(0);
+            return tiDAO.getBody(instruction);
          }
       }
       return null;
    }
 
    private static boolean hasSourceCapability(InstallableUnitDAO iuDao, Object unit) {
+      final ProvidedCapabilityDAO pcDAO = iuDao.getProvidedCapabilityDAO();
       for (Object capabilty : iuDao.getProvidedCapabilities(unit)) {
-         if (capabilty.toString().startsWith("org.eclipse.equinox.p2.eclipse.type/source/")) {
+         if ("source".equals(pcDAO.getName(capabilty))
+            && "org.eclipse.equinox.p2.eclipse.type".equals(pcDAO.getNamespace(capabilty))) {
             return true;
          }
       }
       return false;
    }
 
+   private static class DebugLogger implements MavenLogger {
+      private final MavenLogger delegate;
+
+      public DebugLogger(MavenLogger delegate) {
+         this.delegate = delegate;
+      }
+
+      @Override
+      public void error(String message) {
+         delegate.debug(message);
+      }
+
+      @Override
+      public void warn(String message) {
+         delegate.debug(message);
+      }
+
+      @Override
+      public void warn(String message, Throwable cause) {
+         delegate.debug(message);
+      }
+
+      @Override
+      public void info(String message) {
+         delegate.debug(message);
+      }
+
+      @Override
+      public void debug(String message) {
+         delegate.debug(message);
+      }
+
+      @Override
+      public boolean isDebugEnabled() {
+         return delegate.isDebugEnabled();
+      }
+
+      @Override
+      public boolean isExtendedDebugEnabled() {
+         return delegate.isExtendedDebugEnabled();
+      }
+   }
+
    private abstract static class AbstractDAO {
+      private static final ClassValue<ConcurrentMap<String, MethodHandle>> HANDLES;
+
+      static {
+         // values are held by the class itself, so they don't keep p2's class loader alive
+         HANDLES = new ClassValue<ConcurrentMap<String, MethodHandle>>() {
+            @Override
+            protected ConcurrentMap<String, MethodHandle> computeValue(Class<?> type) {
+               return new ConcurrentHashMap<String, MethodHandle>();
+            }
+         };
+      }
+
       private final String className;
 
       protected final ClassLoader classLoader;
@@ -230,8 +501,33 @@ public class TychoSourceIUResolver {
          return clazz;
       }
 
-      protected Method getMethod(String methodName, Class<?>... argTypes) {
-         return getMethod(getClazz(), methodName, argTypes);
+      /**
+       * Returns a handle of the given method, typed to take the target and the arguments as objects and to return an
+       * object. Handles are looked up once per class and shared by all DAOs.
+       */
+      protected MethodHandle getMethod(String methodName, Class<?>... argTypes) {
+         final ConcurrentMap<String, MethodHandle> handles = HANDLES.get(getClazz());
+         final String key = methodName + Arrays.toString(argTypes);
+         MethodHandle handle = handles.get(key);
+         if (handle == null) {
+            final Method method = getMethod(getClazz(), methodName, argTypes);
+            if (method == null) {
+               throw new IllegalStateException("Method " + methodName + " not found in " + className);
+            }
+            method.setAccessible(true);
+            try {
+               handle = MethodHandles.lookup().unreflect(method)
+                  .asType(MethodType.genericMethodType(argTypes.length + 1));
+            }
+            catch (IllegalAccessException e) {
+               throw pipe(e);
+            }
+            final MethodHandle existing = handles.putIfAbsent(key, handle);
+            if (existing != null) {
+               handle = existing;
+            }
+         }
+         return handle;
       }
 
       private static Method getMethod(Class<?> clazz, String methodName, Class<?>... argTypes) {
@@ -257,33 +553,53 @@ public class TychoSourceIUResolver {
       }
 
       @SuppressWarnings("unchecked")
-      protected static <T> T invoke(Method method, Object target, Object... args) {
+      protected static <T> T invoke(MethodHandle method, Object target) {
          try {
-            return (T) method.invoke(target, args);
+            return (T) method.invokeExact(target);
          }
-         catch (IllegalAccessException e) {
-            throw pipe(e);
+         catch (Throwable t) {
+            throw rethrow(t);
          }
-         catch (InvocationTargetException e) {
-            final Throwable t = e.getTargetException();
-            if (t instanceof RuntimeException) {
-               throw (RuntimeException) t;
-            }
-            if (t instanceof Error) {
-               throw (Error) t;
-            }
-            if (t instanceof Exception) {
-               throw pipe((Exception) t);
-            }
-            throw new IllegalStateException(t);
+      }
+
+      @SuppressWarnings("unchecked")
+      protected static <T> T invoke(MethodHandle method, Object target, Object arg) {
+         try {
+            return (T) method.invokeExact(target, arg);
+         }
+         catch (Throwable t) {
+            throw rethrow(t);
+         }
+      }
+
+      @SuppressWarnings("unchecked")
+      protected static <T> T invoke(MethodHandle method, Object target, Object arg1, Object arg2) {
+         try {
+            return (T) method.invokeExact(target, arg1, arg2);
+         }
+         catch (Throwable t) {
+            throw rethrow(t);
+         }
+      }
+
+      private static RuntimeException rethrow(Throwable t) {
+         if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+         }
+         if (t instanceof Error) {
+            throw (Error) t;
          }
+         if (t instanceof Exception) {
+            throw pipe((Exception) t);
+         }
+         throw new IllegalStateException(t);
       }
    }
 
    private static class P2TargetPlatformDAO extends AbstractDAO {
       private InstallableUnitDAO iuDAO;
 
-      private Method getInstallableUnits;
+      private MethodHandle getInstallableUnits;
 
       public P2TargetPlatformDAO(ClassLoader classLoader) {
          super(classLoader, "org.eclipse.tycho.p2.target.P2TargetPlatform");
@@ -307,11 +623,13 @@ public class TychoSourceIUResolver {
    static class InstallableUnitDAO extends AbstractDAO {
       private TouchpointDataDAO tdDAO;
 
-      private Method getId;
-      private Method getVersion;
-      private Method getProvidedCapabilities;
-      private Method getTouchpointData;
-      private Method setProperty;
+      private ProvidedCapabilityDAO pcDAO;
+
+      private MethodHandle getId;
+      private MethodHandle getVersion;
+      private MethodHandle getProvidedCapabilities;
+      private MethodHandle getTouchpointData;
+      private MethodHandle setProperty;
 
       public InstallableUnitDAO(ClassLoader classLoader) {
          super(classLoader, "org.eclipse.equinox.internal.p2.metadata.InstallableUnit");
@@ -324,6 +642,13 @@ public class TychoSourceIUResolver {
          return tdDAO;
       }
 
+      public ProvidedCapabilityDAO getProvidedCapabilityDAO() {
+         if (pcDAO == null) {
+            pcDAO = new ProvidedCapabilityDAO(classLoader);
+         }
+         return pcDAO;
+      }
+
       public String getId(Object unit) {
          if (getId == null) {
             getId = getMethod("getId");
@@ -360,9 +685,32 @@ public class TychoSourceIUResolver {
       }
    }
 
+   private static class ProvidedCapabilityDAO extends AbstractDAO {
+      private MethodHandle getNamespace;
+      private MethodHandle getName;
+
+      protected ProvidedCapabilityDAO(ClassLoader classLoader) {
+         super(classLoader, "org.eclipse.equinox.p2.metadata.IProvidedCapability");
+      }
+
+      public String getNamespace(Object capability) {
+         if (getNamespace == null) {
+            getNamespace = getMethod("getNamespace");
+         }
+         return invoke(getNamespace, capability);
+      }
+
+      public String getName(Object capability) {
+         if (getName == null) {
+            getName = getMethod("getName");
+         }
+         return invoke(getName, capability);
+      }
+   }
+
    private static class TouchpointDataDAO extends AbstractDAO {
       private TouchpointInstructionDAO tiDAO;
-      private Method getInstruction;
+      private MethodHandle getInstruction;
 
       protected TouchpointDataDAO(ClassLoader classLoader) {
          super(classLoader, "org.eclipse.equinox.p2.metadata.ITouchpointData");
@@ -384,7 +732,7 @@ public class TychoSourceIUResolver {
    }
 
    private static class TouchpointInstructionDAO extends AbstractDAO {
-      private Method getBody;
+      private MethodHandle getBody;
 
       protected TouchpointInstructionDAO(ClassLoader classLoader) {
          super(classLoader, "org.eclipse.equinox.p2.metadata.ITouchpointInstruction");
@@ -0,0 +1,583 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.sourcepit.common.utils.lang.Exceptions;
+import org.sourcepit.common.utils.zip.ZipProcessingRequest;
+import org.sourcepit.common.utils.zip.ZipProcessor;
+
+/**
+ * A content addressed store for bundles that is shared across target platforms. Entries are keyed by bundle id,
+ * version and the SHA-256 of the bundle content and are populated once. To avoid hashing known bundles over and over,
+ * the content hash is indexed by location, size and modification time of the bundle. Target platforms link to the
+ * entries and register themselves as referrers, so that {@link #collectGarbage(long, long)} only evicts entries that
+ * are no longer in use. Builds hold a shared lock on the store while they are using it, the garbage collection an
+ * exclusive one.
+ */
+public class BundleStore {
+   private static final String REFS_FILE = "refs.properties";
+
+   private static final String LOCK_FILE = ".lock";
+
+   private static final String INDEX_PREFIX = "index-";
+
+   // striped, so that memory doesn't grow with the number of entries
+   private static final Object[] LOCKS = new Object[64];
+
+   static {
+      for (int i = 0; i < LOCKS.length; i++) {
+         LOCKS[i] = new Object();
+      }
+   }
+
+   // the JVM allows only one lock per file, so builds and the garbage collection running in the same JVM share it
+   private static final Map<String, SharedLock> SHARED_LOCKS = new HashMap<String, SharedLock>();
+
+   private final File storeDir;
+
+   private boolean open;
+
+   public BundleStore(File storeDir) {
+      this.storeDir = storeDir;
+   }
+
+   /**
+    * Acquires the shared lock that keeps the garbage collection away until {@link #close()} is called.
+    */
+   public void open() throws IOException {
+      final String key = storeDir.getAbsolutePath();
+      synchronized (SHARED_LOCKS) {
+         if (open) {
+            return;
+         }
+         SharedLock sharedLock = SHARED_LOCKS.get(key);
+         while (sharedLock != null && sharedLock.exclusive) {
+            // a garbage collection within this JVM, wait until it is done
+            try {
+               SHARED_LOCKS.wait();
+            }
+            catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new IOException(e);
+            }
+            sharedLock = SHARED_LOCKS.get(key);
+         }
+         if (sharedLock == null) {
+            mkdirs(storeDir);
+            final RandomAccessFile raf = new RandomAccessFile(new File(storeDir, LOCK_FILE), "rw");
+            try {
+               sharedLock = new SharedLock(raf, raf.getChannel().lock(0L, Long.MAX_VALUE, true), false);
+            }
+            catch (IOException e) {
+               raf.close();
+               throw e;
+            }
+            SHARED_LOCKS.put(key, sharedLock);
+         }
+         sharedLock.count++;
+         open = true;
+      }
+   }
+
+   public void close() throws IOException {
+      final String key = storeDir.getAbsolutePath();
+      synchronized (SHARED_LOCKS) {
+         if (!open) {
+            return;
+         }
+         open = false;
+         final SharedLock sharedLock = SHARED_LOCKS.get(key);
+         if (--sharedLock.count == 0) {
+            SHARED_LOCKS.remove(key);
+            try {
+               sharedLock.lock.release();
+            }
+            finally {
+               sharedLock.file.close();
+            }
+         }
+      }
+   }
+
+   public File getJar(String type, String id, String version, File jarFile) throws IOException {
+      final File entryDir = getEntryDir(type, id, version, jarFile);
+      final File jar = new File(entryDir, "bundle.jar");
+      if (!jar.exists()) {
+         final File tmp = newTempFile(entryDir);
+         FileUtils.copyFile(jarFile, tmp);
+         commit(tmp, jar);
+      }
+      return jar;
+   }
+
+   public File getExploded(String type, String id, String version, File jarFile) throws IOException {
+      final File entryDir = getEntryDir(type, id, version, jarFile);
+      final File dir = new File(entryDir, "exploded");
+      if (!dir.exists()) {
+         final File tmp = newTempFile(entryDir);
+         new ZipProcessor().process(ZipProcessingRequest.newUnzipRequest(jarFile, tmp));
+         commit(tmp, dir);
+      }
+      return dir;
+   }
+
+   public File getDirectory(String type, String id, String version, File bundleDir) throws IOException {
+      final File entryDir = getEntryDir(type, id, version, bundleDir);
+      final File dir = new File(entryDir, "directory");
+      if (!dir.exists()) {
+         final File tmp = newTempFile(entryDir);
+         FileUtils.copyDirectory(bundleDir, tmp);
+         commit(tmp, dir);
+      }
+      return dir;
+   }
+
+   public void addReference(File entry, File referrer) throws IOException {
+      final File entryDir = entry.getParentFile();
+      synchronized (getLock(entryDir)) {
+         final RandomAccessFile raf = new RandomAccessFile(new File(entryDir, REFS_FILE), "rw");
+         try {
+            final FileChannel channel = raf.getChannel();
+            final FileLock lock = channel.lock();
+            try {
+               final Properties refs = loadRefs(channel);
+               refs.setProperty(referrer.getAbsolutePath(), entry.getName());
+               storeRefs(channel, refs);
+            }
+            finally {
+               lock.release();
+            }
+         }
+         finally {
+            raf.close();
+         }
+      }
+   }
+
+   /**
+    * Drops references of target platforms that no longer link to an entry and deletes unreferenced entries that were
+    * not used for more than <code>maxAge</code> milliseconds. If <code>maxSize</code> is greater than zero, further
+    * unreferenced entries are deleted, least recently used first, until the store fits into <code>maxSize</code>
+    * bytes.
+    *
+    * @return the number of deleted entries or <code>-1</code>, if the store is in use by a build
+    */
+   public int collectGarbage(long maxAge, long maxSize) throws IOException {
+      if (!storeDir.isDirectory()) {
+         return 0;
+      }
+      final String key = storeDir.getAbsolutePath();
+      final SharedLock exclusiveLock;
+      synchronized (SHARED_LOCKS) {
+         if (SHARED_LOCKS.containsKey(key)) {
+            // in use by a build within this JVM, a second lock on the file would fail or drop theirs on close
+            return -1;
+         }
+         final RandomAccessFile raf = new RandomAccessFile(new File(storeDir, LOCK_FILE), "rw");
+         final FileLock lock;
+         try {
+            lock = raf.getChannel().tryLock();
+         }
+         catch (IOException e) {
+            raf.close();
+            throw e;
+         }
+         catch (OverlappingFileLockException e) {
+            raf.close();
+            return -1;
+         }
+         if (lock == null) {
+            // in use by a build of another process
+            raf.close();
+            return -1;
+         }
+         exclusiveLock = new SharedLock(raf, lock, true);
+         SHARED_LOCKS.put(key, exclusiveLock);
+      }
+      try {
+         return doCollectGarbage(maxAge, maxSize);
+      }
+      finally {
+         synchronized (SHARED_LOCKS) {
+            SHARED_LOCKS.remove(key);
+            SHARED_LOCKS.notifyAll();
+            try {
+               exclusiveLock.lock.release();
+            }
+            finally {
+               exclusiveLock.file.close();
+            }
+         }
+      }
+   }
+
+   private int doCollectGarbage(long maxAge, long maxSize) throws IOException {
+      final List<File> unreferenced = new ArrayList<File>();
+      long size = 0;
+      for (File entryDir : getEntryDirs()) {
+         if (pruneReferences(entryDir) == 0) {
+            unreferenced.add(entryDir);
+         }
+         size += FileUtils.sizeOfDirectory(entryDir);
+      }
+
+      Collections.sort(unreferenced, new Comparator<File>() {
+         @Override
+         public int compare(File f1, File f2) {
+            final long l1 = getLastUsed(f1);
+            final long l2 = getLastUsed(f2);
+            return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+         }
+      });
+
+      final long now = System.currentTimeMillis();
+
+      int deleted = 0;
+      for (File entryDir : unreferenced) {
+         final boolean expired = now - getLastUsed(entryDir) > maxAge;
+         if (expired || (maxSize > 0 && size > maxSize)) {
+            final long entrySize = FileUtils.sizeOfDirectory(entryDir);
+            FileUtils.deleteDirectory(entryDir);
+            size -= entrySize;
+            deleted++;
+         }
+      }
+
+      for (File typeDir : listDirs(storeDir)) {
+         for (File bundleDir : listDirs(typeDir)) {
+            pruneIndex(bundleDir);
+         }
+      }
+      return deleted;
+   }
+
+   private static void pruneIndex(File bundleDir) throws IOException {
+      final File[] files = bundleDir.listFiles();
+      if (files == null) {
+         return;
+      }
+      for (File file : files) {
+         if (file.isFile() && file.getName().startsWith(INDEX_PREFIX)) {
+            final String hash = readIndex(file);
+            if (hash == null || !new File(bundleDir, hash).isDirectory()) {
+               FileUtils.deleteQuietly(file);
+            }
+         }
+      }
+   }
+
+   private List<File> getEntryDirs() {
+      final List<File> entryDirs = new ArrayList<File>();
+      for (File typeDir : listDirs(storeDir)) {
+         for (File bundleDir : listDirs(typeDir)) {
+            entryDirs.addAll(listDirs(bundleDir));
+         }
+      }
+      return entryDirs;
+   }
+
+   private static List<File> listDirs(File dir) {
+      final File[] files = dir.listFiles();
+      if (files == null) {
+         return Collections.emptyList();
+      }
+      final List<File> dirs = new ArrayList<File>(Arrays.asList(files));
+      for (Iterator<File> it = dirs.iterator(); it.hasNext();) {
+         if (!it.next().isDirectory()) {
+            it.remove();
+         }
+      }
+      return dirs;
+   }
+
+   private int pruneReferences(File entryDir) throws IOException {
+      final File refsFile = new File(entryDir, REFS_FILE);
+      if (!refsFile.exists()) {
+         return 0;
+      }
+      synchronized (getLock(entryDir)) {
+         final RandomAccessFile raf = new RandomAccessFile(refsFile, "rw");
+         try {
+            final FileChannel channel = raf.getChannel();
+            final FileLock lock = channel.lock();
+            try {
+               final Properties refs = loadRefs(channel);
+               final int count = refs.size();
+               for (Iterator<Entry<Object, Object>> it = refs.entrySet().iterator(); it.hasNext();) {
+                  final Entry<Object, Object> ref = it.next();
+                  final File referrer = new File((String) ref.getKey());
+                  if (!isLinked(referrer, new File(entryDir, (String) ref.getValue()))) {
+                     it.remove();
+                  }
+               }
+               if (refs.size() != count) {
+                  storeRefs(channel, refs);
+               }
+               return refs.size();
+            }
+            finally {
+               lock.release();
+            }
+         }
+         finally {
+            raf.close();
+         }
+      }
+   }
+
+   private static boolean isLinked(File referrer, File entry) throws IOException {
+      if (!referrer.exists()) {
+         return false;
+      }
+      // symbolic links resolve to the entry itself
+      if (Files.isSameFile(referrer.toPath(), entry.toPath())) {
+         return true;
+      }
+      if (referrer.isFile() || entry.isFile()) {
+         // hard links share the same file key, copies don't
+         return false;
+      }
+      // a hard linked tree shares the file keys of its files, probe the first one
+      final File probe = findFirstFile(entry);
+      if (probe == null) {
+         return referrer.isDirectory();
+      }
+      final File linked = new File(referrer, entry.toPath().relativize(probe.toPath()).toString());
+      return linked.isFile() && Files.isSameFile(linked.toPath(), probe.toPath());
+   }
+
+   private static File findFirstFile(File dir) {
+      final File[] children = dir.listFiles();
+      if (children == null) {
+         return null;
+      }
+      Arrays.sort(children);
+      for (File child : children) {
+         if (child.isFile()) {
+            return child;
+         }
+      }
+      for (File child : children) {
+         final File file = child.isDirectory() ? findFirstFile(child) : null;
+         if (file != null) {
+            return file;
+         }
+      }
+      return null;
+   }
+
+   private static long getLastUsed(File entryDir) {
+      final File refsFile = new File(entryDir, REFS_FILE);
+      return refsFile.exists() ? refsFile.lastModified() : entryDir.lastModified();
+   }
+
+   private static Properties loadRefs(FileChannel channel) throws IOException {
+      final Properties refs = new Properties();
+      channel.position(0);
+      refs.load(Channels.newInputStream(channel));
+      return refs;
+   }
+
+   private static void storeRefs(FileChannel channel, Properties refs) throws IOException {
+      channel.truncate(0);
+      channel.position(0);
+      refs.store(Channels.newOutputStream(channel), null);
+      channel.force(false);
+   }
+
+   private File getEntryDir(String type, String id, String version, File location) throws IOException {
+      final File bundleDir = new File(storeDir, type + "/" + id + "_" + version);
+
+      // stats are cheap, the content is only hashed for unknown or changed bundles
+      final File indexFile = new File(bundleDir, INDEX_PREFIX + hex(sha256().digest(getStatKey(location))));
+      String hash = readIndex(indexFile);
+      if (hash == null || !new File(bundleDir, hash).isDirectory()) {
+         hash = sha256(location);
+         mkdirs(new File(bundleDir, hash));
+         writeIndex(indexFile, hash);
+      }
+
+      final File entryDir = new File(bundleDir, hash);
+      touch(entryDir);
+      return entryDir;
+   }
+
+   private static byte[] getStatKey(File location) throws IOException {
+      final long[] stats = new long[3];
+      stat(location, stats);
+      return (location.getAbsolutePath() + "\n" + stats[0] + "\n" + stats[1] + "\n" + stats[2]).getBytes("UTF-8");
+   }
+
+   private static void stat(File file, long[] stats) {
+      if (file.isDirectory()) {
+         final File[] children = file.listFiles();
+         if (children != null) {
+            for (File child : children) {
+               stat(child, stats);
+            }
+         }
+      }
+      stats[0]++;
+      stats[1] += file.isFile() ? file.length() : 0;
+      stats[2] = Math.max(stats[2], file.lastModified());
+   }
+
+   private static String readIndex(File indexFile) throws IOException {
+      if (!indexFile.isFile()) {
+         return null;
+      }
+      final String hash = FileUtils.readFileToString(indexFile, "UTF-8").trim();
+      return hash.length() == 64 ? hash : null;
+   }
+
+   private static void writeIndex(File indexFile, String hash) throws IOException {
+      final File tmp = newTempFile(indexFile.getParentFile());
+      FileUtils.writeStringToFile(tmp, hash, "UTF-8");
+      Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+         StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   private static void touch(File entryDir) {
+      // the garbage collection evicts least recently used entries first
+      final File refsFile = new File(entryDir, REFS_FILE);
+      (refsFile.exists() ? refsFile : entryDir).setLastModified(System.currentTimeMillis());
+   }
+
+   private static void mkdirs(File dir) throws IOException {
+      if (!dir.mkdirs() && !dir.isDirectory()) {
+         throw new IOException("Unable to create directory " + dir);
+      }
+   }
+
+   private static File newTempFile(File entryDir) {
+      return new File(entryDir, ".tmp-" + UUID.randomUUID());
+   }
+
+   private static void commit(File tmp, File target) throws IOException {
+      try {
+         Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException e) {
+         // another build populated the entry in the meantime
+         FileUtils.deleteQuietly(tmp);
+         if (!target.exists()) {
+            throw e;
+         }
+      }
+   }
+
+   private static Object getLock(File entryDir) {
+      return LOCKS[(entryDir.getAbsolutePath().hashCode() & Integer.MAX_VALUE) % LOCKS.length];
+   }
+
+   private static String sha256(File location) throws IOException {
+      final MessageDigest digest = sha256();
+      update(digest, location, "");
+      return hex(digest.digest());
+   }
+
+   private static MessageDigest sha256() {
+      try {
+         return MessageDigest.getInstance("SHA-256");
+      }
+      catch (NoSuchAlgorithmException e) {
+         throw Exceptions.pipe(e);
+      }
+   }
+
+   private static String hex(byte[] bytes) {
+      final StringBuilder sb = new StringBuilder();
+      for (byte b : bytes) {
+         sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+         sb.append(Character.forDigit(b & 0xF, 16));
+      }
+      return sb.toString();
+   }
+
+   private static void update(MessageDigest digest, File file, String path) throws IOException {
+      if (file.isDirectory()) {
+         final File[] children = file.listFiles();
+         if (children == null) {
+            throw new IOException("Unable to list directory " + file);
+         }
+         Arrays.sort(children);
+         for (File child : children) {
+            final String childPath = path + "/" + child.getName();
+            digest.update(childPath.getBytes("UTF-8"));
+            update(digest, child, childPath);
+         }
+      }
+      else {
+         final byte[] buffer = new byte[64 * 1024];
+         final InputStream in = new FileInputStream(file);
+         try {
+            int n = in.read(buffer);
+            while (n > -1) {
+               digest.update(buffer, 0, n);
+               n = in.read(buffer);
+            }
+         }
+         finally {
+            IOUtils.closeQuietly(in);
+         }
+      }
+   }
+
+   private static class SharedLock {
+      final RandomAccessFile file;
+
+      final FileLock lock;
+
+      // held by the garbage collection, builds wait until it is released
+      final boolean exclusive;
+
+      int count;
+
+      SharedLock(RandomAccessFile file, FileLock lock, boolean exclusive) {
+         this.file = file;
+         this.lock = lock;
+         this.exclusive = exclusive;
+      }
+   }
+}
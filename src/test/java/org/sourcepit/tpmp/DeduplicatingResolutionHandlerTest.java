@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp;
+
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.project.MavenProject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sourcepit.tpmp.resolver.TargetPlatformResolutionHandler;
+
+public class DeduplicatingResolutionHandlerTest {
+   @Rule
+   public TemporaryFolder tmp = new TemporaryFolder();
+
+   @Test
+   public void testUpgradeFromJarToUnpacked() throws Exception {
+      final File jarFile = tmp.newFile("bar_1.0.0.jar");
+
+      final RecordingHandler recorder = new RecordingHandler();
+      final DeduplicatingResolutionHandler handler = new DeduplicatingResolutionHandler(recorder);
+
+      handler.handlePlugin("bar", "1.0.0", jarFile, false, null);
+      handler.handlePlugin("bar", "1.0.0", jarFile, false, null);
+      handler.handlePlugin("bar", "1.0.0", jarFile, true, null);
+      handler.handlePlugin("bar", "1.0.0", jarFile, true, null);
+      handler.handlePlugin("bar", "1.0.0", jarFile, false, null);
+
+      final List<String> expected = new ArrayList<String>();
+      expected.add("plugin bar_1.0.0 jar");
+      expected.add("plugin bar_1.0.0 unpacked");
+      assertThat(recorder.calls, equalTo(expected));
+      assertThat(handler.getMisses(), equalTo(2L));
+      assertThat(handler.getHits(), equalTo(3L));
+   }
+
+   @Test
+   public void testFeaturesAndReactorProjects() throws Exception {
+      final File jarFile = tmp.newFile("foo_1.0.0.jar");
+      final MavenProject project = new MavenProject();
+
+      final RecordingHandler recorder = new RecordingHandler();
+      final DeduplicatingResolutionHandler handler = new DeduplicatingResolutionHandler(recorder);
+
+      handler.handleFeature("foo", "1.0.0", jarFile, null);
+      handler.handleFeature("foo", "1.0.0", jarFile, null);
+      // reactor projects are always forwarded and not counted
+      handler.handleFeature("foo", "1.0.0", jarFile, project);
+      handler.handleFeature("foo", "1.0.0", jarFile, project);
+
+      assertThat(recorder.calls.size(), equalTo(3));
+      assertThat(handler.getMisses(), equalTo(1L));
+      assertThat(handler.getHits(), equalTo(1L));
+   }
+
+   private static class RecordingHandler implements TargetPlatformResolutionHandler {
+      final List<String> calls = new ArrayList<String>();
+
+      @Override
+      public void handleFeature(String id, String version, File location, MavenProject mavenProject) {
+         calls.add("feature " + id + "_" + version);
+      }
+
+      @Override
+      public void handlePlugin(String id, String version, File location, boolean unpack, MavenProject mavenProject) {
+         calls.add("plugin " + id + "_" + version + (unpack ? " unpacked" : " jar"));
+      }
+   }
+}
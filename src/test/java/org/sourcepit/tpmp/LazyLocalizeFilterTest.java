@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LazyLocalizeFilterTest {
+   @Rule
+   public TemporaryFolder tmp = new TemporaryFolder();
+
+   @Test
+   public void testMatches() {
+      final TargetEnvironment linux = new TargetEnvironment("linux", "gtk", "x86_64");
+      assertThat(LazyLocalizeFilter.matches("(osgi.os=linux)", linux), is(true));
+      assertThat(LazyLocalizeFilter.matches("(&(osgi.os=linux)(osgi.arch=x86))", linux), is(false));
+      assertThat(LazyLocalizeFilter.matches("(|(osgi.os=win32)(osgi.os=linux))", linux), is(true));
+      assertThat(LazyLocalizeFilter.matches("(!(osgi.os=linux))", linux), is(false));
+      assertThat(LazyLocalizeFilter.matches("(&(osgi.ws=gtk)(!(osgi.arch=x86)))", linux), is(true));
+      // malformed filters don't exclude anything
+      assertThat(LazyLocalizeFilter.matches("(osgi.os=linux", linux), is(true));
+   }
+
+   @Test
+   public void testLazyLocalize() throws Exception {
+      final File zipFile = tmp.newFile("platform.zip");
+      final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile));
+      try {
+         putManifest(out, "platform/plugins/foo_1.0.0/", null);
+         putManifest(out, "platform/plugins/foo.win32_1.0.0/", "(osgi.os=win32)");
+         putManifest(out, "platform/plugins/bar.win32_1.0.0/", "(osgi.os=win32)");
+      }
+      finally {
+         out.close();
+      }
+
+      final File destDir = tmp.newFolder("dest");
+      final File indexFile = new File(destDir, "platform/.tpmp/localize.index");
+      final TargetEnvironment linux = new TargetEnvironment("linux", "gtk", "x86_64");
+
+      final LazyLocalizeFilter filter = new LazyLocalizeFilter(linux, Collections.singleton("bar.win32"));
+      new ParallelUnzipper(2).unzip(zipFile, destDir, filter);
+      filter.writeIndex(indexFile, "key");
+
+      assertThat(new File(destDir, "platform/plugins/foo_1.0.0/" + JarFile.MANIFEST_NAME).isFile(), is(true));
+      assertThat(new File(destDir, "platform/plugins/foo.win32_1.0.0").exists(), is(false));
+      // requested explicitly
+      assertThat(new File(destDir, "platform/plugins/bar.win32_1.0.0/" + JarFile.MANIFEST_NAME).isFile(), is(true));
+
+      assertThat(LazyLocalizeFilter.isLocalized(indexFile, "key", destDir), is(true));
+      assertThat(LazyLocalizeFilter.isLocalized(indexFile, "other key", destDir), is(false));
+
+      // a deleted bundle is noticed without looking into the archive and extracted again
+      FileUtils.deleteDirectory(new File(destDir, "platform/plugins/foo_1.0.0"));
+      assertThat(LazyLocalizeFilter.isLocalized(indexFile, "key", destDir), is(false));
+
+      final LazyLocalizeFilter secondFilter = new LazyLocalizeFilter(linux);
+      new ParallelUnzipper(2).unzip(zipFile, destDir, secondFilter);
+      assertThat(new File(destDir, "platform/plugins/foo_1.0.0/" + JarFile.MANIFEST_NAME).isFile(), is(true));
+   }
+
+   private static void putManifest(ZipOutputStream out, String pluginPath, String platformFilter) throws IOException {
+      final Manifest manifest = new Manifest();
+      manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+      if (platformFilter != null) {
+         manifest.getMainAttributes().putValue("Eclipse-PlatformFilter", platformFilter);
+      }
+      out.putNextEntry(new ZipEntry(pluginPath + JarFile.MANIFEST_NAME));
+      manifest.write(out);
+      out.closeEntry();
+   }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LinkModeTest {
+   @Rule
+   public TemporaryFolder tmp = new TemporaryFolder();
+
+   @Test
+   public void testLinkFile() throws Exception {
+      final File source = tmp.newFile("bar_1.0.0.jar");
+      FileUtils.writeStringToFile(source, "bar", "UTF-8");
+
+      for (LinkMode linkMode : LinkMode.values()) {
+         final File target = new File(tmp.getRoot(), linkMode + "/plugins/bar_1.0.0.jar");
+         linkMode.linkFile(source, target);
+         assertThat(read(target), equalTo("bar"));
+      }
+   }
+
+   @Test
+   public void testLinkDirectory() throws Exception {
+      final File source = tmp.newFolder("baz_1.0.0");
+      FileUtils.writeStringToFile(new File(source, "META-INF/MANIFEST.MF"), "baz", "UTF-8");
+
+      for (LinkMode linkMode : LinkMode.values()) {
+         final File target = new File(tmp.getRoot(), linkMode + "/plugins/baz_1.0.0");
+         linkMode.linkDirectory(source, target);
+         assertThat(read(new File(target, "META-INF/MANIFEST.MF")), equalTo("baz"));
+      }
+   }
+
+   @Test
+   public void testDeleteKeepsLinkTargets() throws Exception {
+      final File source = tmp.newFolder("baz_1.0.0");
+      final File manifest = new File(source, "META-INF/MANIFEST.MF");
+      FileUtils.writeStringToFile(manifest, "baz", "UTF-8");
+
+      final File hardlinked = new File(tmp.getRoot(), "hardlink/baz_1.0.0");
+      LinkMode.HARDLINK.linkDirectory(source, hardlinked);
+      LinkMode.delete(hardlinked);
+      assertThat(hardlinked.exists(), is(false));
+      assertThat(read(manifest), equalTo("baz"));
+
+      final File symlinked = new File(tmp.getRoot(), "symlink/baz_1.0.0");
+      LinkMode.SYMLINK.linkDirectory(source, symlinked);
+      Assume.assumeTrue(Files.isSymbolicLink(symlinked.toPath()));
+      LinkMode.delete(symlinked);
+      assertThat(symlinked.exists(), is(false));
+      assertThat(read(manifest), equalTo("baz"));
+   }
+
+   @Test
+   public void testDetach() throws Exception {
+      final File source = tmp.newFolder("baz_1.0.0");
+      final File manifest = new File(source, "META-INF/MANIFEST.MF");
+      FileUtils.writeStringToFile(manifest, "baz", "UTF-8");
+
+      final File target = new File(tmp.getRoot(), "symlink/baz_1.0.0");
+      LinkMode.SYMLINK.linkDirectory(source, target);
+      Assume.assumeTrue(Files.isSymbolicLink(target.toPath()));
+
+      LinkMode.detach(target);
+      assertThat(Files.isSymbolicLink(target.toPath()), is(false));
+
+      FileUtils.writeStringToFile(new File(target, "META-INF/MANIFEST.MF"), "changed", "UTF-8");
+      assertThat(read(manifest), equalTo("baz"));
+   }
+
+   private static String read(File file) throws IOException {
+      return FileUtils.readFileToString(file, "UTF-8");
+   }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParallelUnzipperTest {
+   @Rule
+   public TemporaryFolder tmp = new TemporaryFolder();
+
+   @Test
+   public void testUnzip() throws Exception {
+      final File zipFile = tmp.newFile("platform.zip");
+      final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile));
+      try {
+         out.putNextEntry(new ZipEntry("platform/plugins/"));
+         out.closeEntry();
+         for (int i = 0; i < 100; i++) {
+            // mixes deflated and stored entries
+            final ZipEntry entry = new ZipEntry("platform/plugins/bundle_" + i + "/content.txt");
+            if (i % 2 == 0) {
+               final byte[] content = ("content " + i).getBytes("UTF-8");
+               final CRC32 crc = new CRC32();
+               crc.update(content);
+               entry.setMethod(ZipEntry.STORED);
+               entry.setSize(content.length);
+               entry.setCrc(crc.getValue());
+            }
+            out.putNextEntry(entry);
+            out.write(("content " + i).getBytes("UTF-8"));
+            out.closeEntry();
+         }
+      }
+      finally {
+         out.close();
+      }
+
+      final File destDir = tmp.newFolder("dest");
+      new ParallelUnzipper(4).unzip(zipFile, destDir);
+
+      assertThat(new File(destDir, "platform/plugins").isDirectory(), is(true));
+      for (int i = 0; i < 100; i++) {
+         final File file = new File(destDir, "platform/plugins/bundle_" + i + "/content.txt");
+         assertThat(FileUtils.readFileToString(file, "UTF-8"), equalTo("content " + i));
+      }
+   }
+
+   @Test
+   public void testRejectEntriesOutsideOfTargetDir() throws Exception {
+      final File zipFile = tmp.newFile("evil.zip");
+      final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile));
+      try {
+         out.putNextEntry(new ZipEntry("../evil.txt"));
+         out.write("evil".getBytes("UTF-8"));
+         out.closeEntry();
+      }
+      finally {
+         out.close();
+      }
+
+      final File destDir = tmp.newFolder("dest");
+      try {
+         new ParallelUnzipper(4).unzip(zipFile, destDir);
+         fail();
+      }
+      catch (RuntimeException e) {
+         assertThat(e.getCause() instanceof IOException, is(true));
+      }
+      assertThat(new File(tmp.getRoot(), "evil.txt").exists(), is(false));
+   }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SimpleZipperTest {
+   @Rule
+   public TemporaryFolder tmp = new TemporaryFolder();
+
+   @Test
+   public void testZip() throws Exception {
+      final File platformDir = tmp.newFolder("platform");
+      FileUtils.writeStringToFile(new File(platformDir, "features/foo_1.0.0/feature.xml"), "<feature/>", "UTF-8");
+      FileUtils.writeStringToFile(new File(platformDir, "plugins/bar_1.0.0.jar"), "bar", "UTF-8");
+      FileUtils.writeStringToFile(new File(platformDir, "plugins/baz_1.0.0/META-INF/MANIFEST.MF"), "baz", "UTF-8");
+
+      final File zipFile = new File(tmp.getRoot(), "platform.zip");
+      new SimpleZipper(4).zip(platformDir, zipFile, "prefix");
+
+      final ZipFile zip = new ZipFile(zipFile);
+      try {
+         assertThat(zip.size(), is(8));
+
+         assertThat(zip.getEntry("prefix/plugins/").isDirectory(), is(true));
+         assertThat(zip.getEntry("prefix/plugins/baz_1.0.0/META-INF/").isDirectory(), is(true));
+
+         final ZipEntry feature = zip.getEntry("prefix/features/foo_1.0.0/feature.xml");
+         assertThat(feature.getMethod(), is(ZipEntry.DEFLATED));
+         assertThat(read(zip, feature), equalTo("<feature/>"));
+
+         final ZipEntry jar = zip.getEntry("prefix/plugins/bar_1.0.0.jar");
+         assertThat(jar, notNullValue());
+         assertThat(jar.getMethod(), is(ZipEntry.STORED));
+         assertThat(read(zip, jar), equalTo("bar"));
+      }
+      finally {
+         zip.close();
+      }
+   }
+
+   @Test
+   public void testZipSingleThreaded() throws Exception {
+      final File platformDir = tmp.newFolder("platform");
+      FileUtils.writeStringToFile(new File(platformDir, "features/foo_1.0.0/feature.xml"), "<feature/>", "UTF-8");
+      FileUtils.writeStringToFile(new File(platformDir, "plugins/bar_1.0.0.jar"), "bar", "UTF-8");
+      FileUtils.writeStringToFile(new File(platformDir, "plugins/baz_1.0.0/META-INF/MANIFEST.MF"), "baz", "UTF-8");
+
+      final File streamedZipFile = new File(tmp.getRoot(), "streamed.zip");
+      new SimpleZipper(1).zip(platformDir, streamedZipFile, null);
+
+      final File parallelZipFile = new File(tmp.getRoot(), "parallel.zip");
+      new SimpleZipper(4).zip(platformDir, parallelZipFile, null);
+
+      assertThat(getEntryNames(streamedZipFile), equalTo(getEntryNames(parallelZipFile)));
+
+      final ZipFile zip = new ZipFile(streamedZipFile);
+      try {
+         assertThat(read(zip, zip.getEntry("features/foo_1.0.0/feature.xml")), equalTo("<feature/>"));
+         assertThat(read(zip, zip.getEntry("plugins/baz_1.0.0/META-INF/MANIFEST.MF")), equalTo("baz"));
+      }
+      finally {
+         zip.close();
+      }
+   }
+
+   @Test
+   public void testIncrementalZip() throws Exception {
+      final File platformDir = tmp.newFolder("platform");
+      final File featureXml = new File(platformDir, "features/foo_1.0.0/feature.xml");
+      FileUtils.writeStringToFile(featureXml, "<feature/>", "UTF-8");
+      final File pluginJar = new File(platformDir, "plugins/bar_1.0.0.jar");
+      FileUtils.writeStringToFile(pluginJar, "bar", "UTF-8");
+
+      final File zipFile = new File(tmp.getRoot(), "platform.zip");
+      new SimpleZipper(2, true).zip(platformDir, zipFile, null);
+
+      // touched but unchanged
+      featureXml.setLastModified(featureXml.lastModified() - 60000);
+      // same size, but different content and time
+      final long lastModified = pluginJar.lastModified();
+      FileUtils.writeStringToFile(pluginJar, "baz", "UTF-8");
+      pluginJar.setLastModified(lastModified - 60000);
+      FileUtils.writeStringToFile(new File(platformDir, "plugins/new_1.0.0.jar"), "new", "UTF-8");
+
+      new SimpleZipper(2, true).zip(platformDir, zipFile, null);
+
+      final ZipFile zip = new ZipFile(zipFile);
+      try {
+         assertThat(zip.size(), is(6));
+         assertThat(read(zip, zip.getEntry("features/foo_1.0.0/feature.xml")), equalTo("<feature/>"));
+         assertThat(read(zip, zip.getEntry("plugins/bar_1.0.0.jar")), equalTo("baz"));
+         assertThat(read(zip, zip.getEntry("plugins/new_1.0.0.jar")), equalTo("new"));
+      }
+      finally {
+         zip.close();
+      }
+      assertThat(new File(tmp.getRoot(), "platform.zip.tmp").exists(), is(false));
+   }
+
+   @Test
+   public void testIncrementalZipCopiesUnchangedEntriesRaw() throws Exception {
+      final File platformDir = tmp.newFolder("platform");
+      FileUtils.writeStringToFile(new File(platformDir, "features/foo_1.0.0/feature.xml"), "<feature/>", "UTF-8");
+      final File pluginJar = new File(platformDir, "plugins/bar_1.0.0.jar");
+      FileUtils.writeStringToFile(pluginJar, "bar", "UTF-8");
+      FileUtils.writeStringToFile(new File(platformDir, "plugins/baz_1.0.0/META-INF/MANIFEST.MF"), "baz", "UTF-8");
+
+      final File zipFile = new File(tmp.getRoot(), "platform.zip");
+      new SimpleZipper(2, true).zip(platformDir, zipFile, null);
+      final List<String> entryNames = getEntryNames(zipFile);
+
+      // same size and time, so the entry is taken from the previous archive without looking at the content
+      final long lastModified = pluginJar.lastModified();
+      FileUtils.writeStringToFile(pluginJar, "baz", "UTF-8");
+      pluginJar.setLastModified(lastModified);
+      final File featureXml = new File(platformDir, "features/foo_1.0.0/feature.xml");
+      FileUtils.writeStringToFile(featureXml, "<feature id=\"foo\"/>", "UTF-8");
+
+      new SimpleZipper(2, true).zip(platformDir, zipFile, null);
+
+      final ZipFile zip = new ZipFile(zipFile);
+      try {
+         assertThat(read(zip, zip.getEntry("plugins/bar_1.0.0.jar")), equalTo("bar"));
+         assertThat(read(zip, zip.getEntry("features/foo_1.0.0/feature.xml")), equalTo("<feature id=\"foo\"/>"));
+      }
+      finally {
+         zip.close();
+      }
+      // raw copies and new entries stay in the order of the platform directory
+      assertThat(getEntryNames(zipFile), equalTo(entryNames));
+   }
+
+   private static List<String> getEntryNames(File zipFile) throws IOException {
+      final List<String> names = new ArrayList<String>();
+      final ZipFile zip = new ZipFile(zipFile);
+      try {
+         final Enumeration<? extends ZipEntry> entries = zip.entries();
+         while (entries.hasMoreElements()) {
+            names.add(entries.nextElement().getName());
+         }
+      }
+      finally {
+         zip.close();
+      }
+      return names;
+   }
+
+   private static String read(ZipFile zip, ZipEntry entry) throws IOException {
+      final InputStream in = zip.getInputStream(entry);
+      try {
+         return IOUtils.toString(in, "UTF-8");
+      }
+      finally {
+         in.close();
+      }
+   }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ZipTargetPlatformResolutionHandlerTest {
+   @Rule
+   public TemporaryFolder tmp = new TemporaryFolder();
+
+   @Test
+   public void testStreamedArchive() throws Exception {
+      final File featureJar = newJar("foo_1.0.0.jar", "feature.xml", "<feature/>");
+      final File pluginJar = newJar("bar_1.0.0.jar", "META-INF/MANIFEST.MF", "bar");
+      final File explodedJar = newJar("baz_1.0.0.jar", "META-INF/MANIFEST.MF", "baz");
+      final File pluginDir = tmp.newFolder("qux_1.0.0");
+      FileUtils.writeStringToFile(new File(pluginDir, "META-INF/MANIFEST.MF"), "qux", "UTF-8");
+
+      final File definitionsDir = tmp.newFolder("definitions");
+      FileUtils.writeStringToFile(new File(definitionsDir, "platform.target"), "<target/>", "UTF-8");
+
+      final File zipFile = new File(tmp.getRoot(), "platform.zip");
+      final ZipTargetPlatformResolutionHandler handler = new ZipTargetPlatformResolutionHandler(zipFile, "prefix");
+      handler.handleFeature("foo", "1.0.0", featureJar, null);
+      handler.handlePlugin("bar", "1.0.0", pluginJar, false, null);
+      handler.handlePlugin("baz", "1.0.0", explodedJar, true, null);
+      handler.handlePlugin("qux", "1.0.0", pluginDir, false, null);
+      // a plugin requested as jar is upgraded when it is requested unpacked later on, never downgraded
+      handler.handlePlugin("bar", "1.0.0", explodedJar, true, null);
+      handler.handlePlugin("baz", "1.0.0", explodedJar, false, null);
+      handler.addFiles(definitionsDir);
+      handler.close();
+
+      final ZipFile zip = new ZipFile(zipFile);
+      try {
+         assertThat(read(zip, "prefix/features/foo_1.0.0/feature.xml"), equalTo("<feature/>"));
+         assertThat(zip.getEntry("prefix/plugins/bar_1.0.0/").isDirectory(), is(true));
+         assertThat(read(zip, "prefix/plugins/bar_1.0.0/META-INF/MANIFEST.MF"), equalTo("baz"));
+         assertThat(zip.getEntry("prefix/plugins/bar_1.0.0.jar"), nullValue());
+         assertThat(zip.getEntry("prefix/plugins/baz_1.0.0.jar"), nullValue());
+         assertThat(read(zip, "prefix/plugins/baz_1.0.0/META-INF/MANIFEST.MF"), equalTo("baz"));
+         assertThat(read(zip, "prefix/plugins/qux_1.0.0/META-INF/MANIFEST.MF"), equalTo("qux"));
+         assertThat(read(zip, "prefix/platform.target"), equalTo("<target/>"));
+         assertThat(zip.getEntry("prefix/plugins/").isDirectory(), is(true));
+      }
+      finally {
+         zip.close();
+      }
+   }
+
+   @Test
+   public void testAbort() throws Exception {
+      final File pluginJar = newJar("bar_1.0.0.jar", "META-INF/MANIFEST.MF", "bar");
+
+      final File zipFile = new File(tmp.getRoot(), "platform.zip");
+      final ZipTargetPlatformResolutionHandler handler = new ZipTargetPlatformResolutionHandler(zipFile, null);
+      handler.handlePlugin("bar", "1.0.0", pluginJar, false, null);
+      handler.abort();
+
+      assertThat(zipFile.exists(), is(false));
+   }
+
+   private File newJar(String name, String entryName, String content) throws IOException {
+      final File jarFile = tmp.newFile(name);
+      final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jarFile));
+      try {
+         out.putNextEntry(new ZipEntry(entryName));
+         out.write(content.getBytes("UTF-8"));
+         out.closeEntry();
+      }
+      finally {
+         out.close();
+      }
+      return jarFile;
+   }
+
+   private static String read(ZipFile zip, String name) throws IOException {
+      final InputStream in = zip.getInputStream(zip.getEntry(name));
+      try {
+         return IOUtils.toString(in, "UTF-8");
+      }
+      finally {
+         in.close();
+      }
+   }
+}
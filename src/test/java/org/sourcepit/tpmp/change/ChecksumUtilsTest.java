@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp.change;
+
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNot.not;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.security.MessageDigest;
+import java.util.Formatter;
+
+import org.junit.Test;
+
+public class ChecksumUtilsTest {
+   @Test
+   public void testWhitespaceIsIgnored() throws Exception {
+      final String hash = ChecksumUtils.calculateHash("<a><b/></a>".getBytes("UTF-8"), "UTF-8");
+      assertThat(ChecksumUtils.calculateHash("<a>\r\n\t<b/>\n</a>  ".getBytes("UTF-8"), "UTF-8"), equalTo(hash));
+      assertThat(ChecksumUtils.calculateHash("<a><c/></a>".getBytes("UTF-8"), "UTF-8"), not(equalTo(hash)));
+   }
+
+   @Test
+   public void testEncodingIsIgnored() throws Exception {
+      final String content = "<feature label=\"\u00e4\u00f6\u00fc \u20ac\"/>";
+      assertThat(ChecksumUtils.calculateHash(content.getBytes("UTF-16"), "UTF-16"),
+         equalTo(ChecksumUtils.calculateHash(content.getBytes("UTF-8"), "UTF-8")));
+   }
+
+   @Test
+   public void testCompatibleWithPerCharHashing() throws Exception {
+      final StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 20000; i++) {
+         sb.append("<plugin id=\"org.example.").append(i).append("\" version=\"1.0.0\"/>\n\t ");
+         sb.append('\u00e4').append("\ud83d\ude00").append('\u3000');
+      }
+      final byte[] bytes = sb.toString().getBytes("UTF-8");
+      assertThat(ChecksumUtils.calculateHash(bytes, "UTF-8"), equalTo(calculateHashPerChar(bytes, "UTF-8")));
+      assertThat(ChecksumUtils.calculateHash(new byte[0], "UTF-8"),
+         equalTo(calculateHashPerChar(new byte[0], "UTF-8")));
+   }
+
+   // the algorithm used before, the checksums stored in existing status caches depend on it
+   private static String calculateHashPerChar(byte[] bytes, String encoding) throws Exception {
+      final MessageDigest sha1 = MessageDigest.getInstance("SHA1");
+      final Reader reader = new InputStreamReader(new ByteArrayInputStream(bytes), encoding);
+      int ch = reader.read();
+      while (ch > -1) {
+         if (!Character.isWhitespace(ch)) {
+            sha1.update((byte) ((ch & 0xFF00) >> 8));
+            sha1.update((byte) (ch & 0x00FF));
+         }
+         ch = reader.read();
+      }
+      final Formatter formatter = new Formatter();
+      try {
+         for (byte b : sha1.digest()) {
+            formatter.format("%02x", Byte.valueOf(b));
+         }
+         return formatter.toString();
+      }
+      finally {
+         formatter.close();
+      }
+   }
+}
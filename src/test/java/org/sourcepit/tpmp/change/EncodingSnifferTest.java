@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp.change;
+
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class EncodingSnifferTest {
+   @Test
+   public void testByteOrderMark() throws Exception {
+      assertThat(EncodingSniffer.sniff("feature.xml", "\ufeff<feature/>".getBytes("UTF-8")), equalTo("UTF-8"));
+      assertThat(EncodingSniffer.sniff("feature.xml", "<feature/>".getBytes("UTF-16")), equalTo("UTF-16"));
+      assertThat(EncodingSniffer.sniff("feature.xml", "\ufeff<feature/>".getBytes("UTF-16LE")), equalTo("UTF-16"));
+   }
+
+   @Test
+   public void testManifest() throws Exception {
+      assertThat(EncodingSniffer.sniff("MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes("UTF-8")), equalTo("UTF-8"));
+   }
+
+   @Test
+   public void testXmlDeclaration() throws Exception {
+      assertThat(EncodingSniffer.sniff("pom.xml", "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><project/>"
+         .getBytes("ISO-8859-1")), equalTo("ISO-8859-1"));
+      assertThat(EncodingSniffer.sniff("pom.xml", "<?xml version='1.0' encoding='utf-8' ?>\n<project/>"
+         .getBytes("UTF-8")), equalTo("UTF-8"));
+      assertThat(EncodingSniffer.sniff("x.product", "<?xml version=\"1.0\"?><product/>".getBytes("UTF-8")),
+         equalTo("UTF-8"));
+   }
+
+   @Test
+   public void testUndecided() throws Exception {
+      assertThat(EncodingSniffer.sniff("pom.xml", "<project/>".getBytes("UTF-8")), nullValue());
+      assertThat(EncodingSniffer.sniff("pom.xml", new byte[0]), nullValue());
+      assertThat(EncodingSniffer.sniff("pom.xml", "<?xml version=\"1.0\" encoding=\"UTF-16\"?><project/>"
+         .getBytes("UTF-8")), nullValue());
+      assertThat(EncodingSniffer.sniff("pom.xml", "<?xml version=\"1.0\" encoding=\"unknown-x\"?><project/>"
+         .getBytes("UTF-8")), nullValue());
+   }
+}
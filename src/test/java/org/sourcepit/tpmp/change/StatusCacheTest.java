@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp.change;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sourcepit.tpmp.change.StatusCache.FileStatus;
+
+public class StatusCacheTest {
+   @Rule
+   public TemporaryFolder tmp = new TemporaryFolder();
+
+   @Test
+   public void testRoundTrip() throws Exception {
+      final File statusCacheDir = tmp.newFolder(".tpmp");
+
+      final StatusCache cache = StatusCache.load(statusCacheDir);
+      cache.setProjectChecksum("group:artifact:1.0", "checksum");
+      cache.setFileStatus("/pom.xml", new FileStatus(42, 1000, "key", "UTF-8", "UTF-8", "hash"));
+      cache.flush();
+
+      final StatusCache reloaded = StatusCache.load(statusCacheDir);
+      assertThat(reloaded.getProjectChecksum("group:artifact:1.0"), equalTo("checksum"));
+      assertThat(reloaded.getFileStatus("/pom.xml").getHash(), equalTo("hash"));
+      assertThat(reloaded.getFileStatus("/pom.xml").getEncoding(), equalTo("UTF-8"));
+   }
+
+   @Test
+   public void testPruneUnseenFiles() throws Exception {
+      final File statusCacheDir = tmp.newFolder(".tpmp");
+
+      final StatusCache cache = StatusCache.load(statusCacheDir);
+      cache.setFileStatus("/pom.xml", new FileStatus(42, 1000, "key", "UTF-8", "UTF-8", "hash"));
+      cache.setFileStatus("/deleted/pom.xml", new FileStatus(42, 1000, "key", "UTF-8", "UTF-8", "hash"));
+      cache.flush();
+
+      final StatusCache reloaded = StatusCache.load(statusCacheDir);
+      assertThat(reloaded.getFileStatus("/pom.xml").getHash(), equalTo("hash"));
+      reloaded.flush();
+
+      final StatusCache pruned = StatusCache.load(statusCacheDir);
+      assertThat(pruned.getFileStatus("/pom.xml").getHash(), equalTo("hash"));
+      assertThat(pruned.getFileStatus("/deleted/pom.xml"), nullValue());
+   }
+
+   @Test
+   public void testInvalidation() throws Exception {
+      final FileStatus status = new FileStatus(42, 1000, "key", "UTF-8", "UTF-8", "hash");
+      assertThat(status.isUpToDate(42, 1000, "key", "UTF-8"), is(true));
+      assertThat(status.isUpToDate(43, 1000, "key", "UTF-8"), is(false));
+      assertThat(status.isUpToDate(42, 2000, "key", "UTF-8"), is(false));
+      // e.g. replaced by another file
+      assertThat(status.isUpToDate(42, 1000, "other", "UTF-8"), is(false));
+      assertThat(status.isUpToDate(42, 1000, "key", "ISO-8859-1"), is(false));
+   }
+
+   @Test
+   public void testCorruptCacheFile() throws Exception {
+      final File statusCacheDir = tmp.newFolder(".tpmp");
+      FileUtils.writeStringToFile(new File(statusCacheDir, "status.bin"), "garbage", "UTF-8");
+
+      final StatusCache cache = StatusCache.load(statusCacheDir);
+      assertThat(cache.getFileStatus("/pom.xml"), nullValue());
+      assertThat(cache.getProjectChecksum("group:artifact:1.0"), nullValue());
+   }
+}
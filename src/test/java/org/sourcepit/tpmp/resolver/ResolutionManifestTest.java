@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp.resolver;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResolutionManifestTest {
+   @Rule
+   public TemporaryFolder tmp = new TemporaryFolder();
+
+   @Test
+   public void testReplay() throws Exception {
+      final File pluginJar = tmp.newFile("org.junit_4.12.0.jar");
+      final File featureJar = tmp.newFile("org.junit.feature_4.12.0.jar");
+      final MavenProject project = newProject(tmp.newFolder("checkout1", "bundle"));
+
+      final RecordingHandler recorded = new RecordingHandler();
+      final ResolutionManifest manifest = new ResolutionManifest(recorded);
+      manifest.handleFeature("org.junit.feature", "4.12.0", featureJar, null);
+      manifest.handlePlugin("org.junit", "4.12.0", pluginJar, true, null);
+      manifest.handlePlugin("bundle", "1.0.0", project.getBasedir(), false, project);
+
+      final File manifestFile = new File(tmp.getRoot(), "resolutions/fingerprint");
+      manifest.write(manifestFile);
+
+      // another checkout of the same reactor
+      final MavenProject otherProject = newProject(tmp.newFolder("checkout2", "bundle"));
+      final RecordingHandler replayed = new RecordingHandler();
+      assertThat(ResolutionManifest.replay(manifestFile, Collections.singletonList(otherProject), replayed), is(true));
+
+      final List<String> expected = new ArrayList<String>(recorded.entries);
+      expected.set(2, "plugin bundle_1.0.0 " + otherProject.getBasedir() + " false " + otherProject.getId());
+      assertThat(replayed.entries, equalTo(expected));
+   }
+
+   @Test
+   public void testReplayRefusesMissingLocations() throws Exception {
+      final File pluginJar = tmp.newFile("org.junit_4.12.0.jar");
+      final MavenProject project = newProject(tmp.newFolder("bundle"));
+
+      final ResolutionManifest manifest = new ResolutionManifest(new RecordingHandler());
+      manifest.handlePlugin("org.junit", "4.12.0", pluginJar, false, null);
+      manifest.handlePlugin("bundle", "1.0.0", project.getBasedir(), false, project);
+
+      final File manifestFile = new File(tmp.getRoot(), "resolutions/fingerprint");
+      manifest.write(manifestFile);
+
+      // the reactor project is gone
+      final RecordingHandler replayed = new RecordingHandler();
+      assertThat(ResolutionManifest.replay(manifestFile, Collections.<MavenProject> emptyList(), replayed),
+         is(false));
+      assertThat(replayed.entries.isEmpty(), is(true));
+
+      // the bundle is gone from the local repository
+      pluginJar.delete();
+      assertThat(ResolutionManifest.replay(manifestFile, Collections.singletonList(project), replayed), is(false));
+      assertThat(replayed.entries.isEmpty(), is(true));
+   }
+
+   @Test
+   public void testIsMaterialized() throws Exception {
+      final File pluginJar = tmp.newFile("org.junit_4.12.0.jar");
+      final File featureJar = tmp.newFile("org.junit.feature_4.12.0.jar");
+      final MavenProject project = newProject(tmp.newFolder("bundle"));
+
+      final ResolutionManifest manifest = new ResolutionManifest(new RecordingHandler());
+      manifest.handleFeature("org.junit.feature", "4.12.0", featureJar, null);
+      manifest.handlePlugin("org.junit", "4.12.0", pluginJar, false, null);
+      manifest.handlePlugin("bundle", "1.0.0", project.getBasedir(), false, project);
+
+      final File manifestFile = new File(tmp.getRoot(), "session-resolution");
+      manifest.write(manifestFile);
+
+      final File platformDir = tmp.newFolder("platform");
+      assertThat(ResolutionManifest.isMaterialized(manifestFile, platformDir), is(false));
+
+      FileUtils.forceMkdir(new File(platformDir, "features/org.junit.feature_4.12.0"));
+      FileUtils.touch(new File(platformDir, "plugins/org.junit_4.12.0.jar"));
+      // reactor projects are never materialized
+      assertThat(ResolutionManifest.isMaterialized(manifestFile, platformDir), is(true));
+
+      FileUtils.deleteQuietly(new File(platformDir, "plugins/org.junit_4.12.0.jar"));
+      assertThat(ResolutionManifest.isMaterialized(manifestFile, platformDir), is(false));
+   }
+
+   @Test
+   public void testEvict() throws Exception {
+      final File dir = tmp.newFolder("resolutions");
+      final long now = System.currentTimeMillis();
+      for (int i = 0; i < 5; i++) {
+         final File file = new File(dir, "fingerprint" + i);
+         FileUtils.touch(file);
+         file.setLastModified(now - i * 60000L);
+      }
+
+      ResolutionManifest.evict(dir, 3);
+
+      final List<String> names = Arrays.asList(dir.list());
+      Collections.sort(names);
+      assertThat(names, equalTo(Arrays.asList("fingerprint0", "fingerprint1", "fingerprint2")));
+   }
+
+   private static MavenProject newProject(File basedir) {
+      final Model model = new Model();
+      model.setGroupId("group");
+      model.setArtifactId("bundle");
+      model.setVersion("1.0.0-SNAPSHOT");
+      model.setPackaging("eclipse-plugin");
+      final MavenProject project = new MavenProject(model);
+      project.setFile(new File(basedir, "pom.xml"));
+      return project;
+   }
+
+   private static class RecordingHandler implements TargetPlatformResolutionHandler {
+      final List<String> entries = new ArrayList<String>();
+
+      @Override
+      public void handleFeature(String id, String version, File location, MavenProject mavenProject) {
+         entries.add("feature " + id + "_" + version + " " + location + " " + toString(mavenProject));
+      }
+
+      @Override
+      public void handlePlugin(String id, String version, File location, boolean unpack, MavenProject mavenProject) {
+         entries.add("plugin " + id + "_" + version + " " + location + " " + unpack + " " + toString(mavenProject));
+      }
+
+      private static String toString(MavenProject mavenProject) {
+         return mavenProject == null ? "" : mavenProject.getId();
+      }
+   }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp.resolver.tycho;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNot.not;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Profile;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.tycho.core.TargetPlatformConfiguration;
+import org.eclipse.tycho.core.shared.TargetEnvironment;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AggregatedConfigurationCacheTest {
+   @Rule
+   public TemporaryFolder tmp = new TemporaryFolder();
+
+   @Test
+   public void testLoadStoredConfiguration() throws Exception {
+      final AggregatedConfigurationCache cache = new AggregatedConfigurationCache(tmp.newFolder(".tpmp"));
+
+      final TargetPlatformConfiguration configuration = new TargetPlatformConfiguration();
+      configuration.getEnvironments().add(new TargetEnvironment("linux", "gtk", "x86_64"));
+      configuration.setExecutionEnvironment("JavaSE-1.7");
+      final Set<Dependency> frameworkExtensions = new LinkedHashSet<Dependency>();
+      final Set<String> explodedBundles = Collections.singleton("org.junit");
+      cache.store("key", configuration, frameworkExtensions, explodedBundles);
+
+      final TargetPlatformConfiguration loaded = new TargetPlatformConfiguration();
+      final Set<String> loadedBundles = new LinkedHashSet<String>();
+      assertThat(cache.load("key", loaded, new LinkedHashSet<Dependency>(), loadedBundles), is(true));
+      assertThat(loaded.getEnvironments().get(0).getOs(), equalTo("linux"));
+      assertThat(loaded.getExecutionEnvironment(), equalTo("JavaSE-1.7"));
+      assertThat(loadedBundles, equalTo(explodedBundles));
+
+      // another configuration, the cached one must not be used
+      assertThat(cache.load("other", new TargetPlatformConfiguration(), new LinkedHashSet<Dependency>(),
+         new LinkedHashSet<String>()), is(false));
+   }
+
+   @Test
+   public void testKeyChangesWithConfiguration() throws Exception {
+      final File settingsFile = tmp.newFile("settings.xml");
+      FileUtils.writeStringToFile(settingsFile, "<settings/>", "UTF-8");
+
+      final MavenExecutionRequest request = new DefaultMavenExecutionRequest();
+      request.setUserSettingsFile(settingsFile);
+      final MavenProject project = new MavenProject();
+      final List<MavenProject> projects = Collections.singletonList(project);
+
+      final String key = computeKey("checksum", request, projects);
+      assertThat(computeKey("checksum", request, projects), equalTo(key));
+
+      assertThat(computeKey("changed", request, projects), not(equalTo(key)));
+
+      request.getUserProperties().setProperty("tycho.localArtifacts", "ignore");
+      final String userPropertiesKey = computeKey("checksum", request, projects);
+      assertThat(userPropertiesKey, not(equalTo(key)));
+
+      request.getSystemProperties().setProperty("os.arch", "x86");
+      final String systemPropertiesKey = computeKey("checksum", request, projects);
+      assertThat(systemPropertiesKey, not(equalTo(userPropertiesKey)));
+
+      // unrelated system properties don't invalidate the cache
+      request.getSystemProperties().setProperty("user.dir", "/tmp");
+      assertThat(computeKey("checksum", request, projects), equalTo(systemPropertiesKey));
+
+      final Profile profile = new Profile();
+      profile.setId("mirror");
+      project.setActiveProfiles(Collections.singletonList(profile));
+      final String profilesKey = computeKey("checksum", request, projects);
+      assertThat(profilesKey, not(equalTo(systemPropertiesKey)));
+
+      FileUtils.writeStringToFile(settingsFile, "<settings><offline>true</offline></settings>", "UTF-8");
+      assertThat(computeKey("checksum", request, projects), not(equalTo(profilesKey)));
+   }
+
+   private static String computeKey(String checksum, MavenExecutionRequest request, List<MavenProject> projects) {
+      return TychoSessionTargetPlatformResolver.computeAggregationKey(checksum, request, projects);
+   }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp.resolver.tycho;
+
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ManifestHeaderScannerTest {
+   @Test
+   public void testScan() {
+      final String manifest = "Manifest-Version: 1.0\r\n" //
+         + "Bundle-SymbolicName: org.example.source;singleton:=true\r\n" //
+         + "Eclipse-SourceBundle: org.example;version=\"1.0.0.v2014\r\n" //
+         + " 0101\";roots:=\".\"\r\n" //
+         + "bundle-version: 1.0.0.v20140101\r\n" //
+         + "\r\n" //
+         + "Name: org/example/Foo.java\r\n" //
+         + "Bundle-Vendor: ignored\r\n";
+
+      final Map<String, String> headers = ManifestHeaderScanner.scan(manifest, "Bundle-SymbolicName", "Bundle-Version",
+         "Eclipse-SourceBundle", "Bundle-Vendor");
+
+      assertThat(headers.get("Bundle-SymbolicName"), equalTo("org.example.source;singleton:=true"));
+      assertThat(headers.get("Bundle-Version"), equalTo("1.0.0.v20140101"));
+      assertThat(headers.get("Eclipse-SourceBundle"), equalTo("org.example;version=\"1.0.0.v20140101\";roots:=\".\""));
+      assertThat(headers.get("Bundle-Vendor"), nullValue());
+   }
+
+   @Test
+   public void testLineFeedsAndLastLine() {
+      final String manifest = "Bundle-SymbolicName: org.example\n Bundle-Version: 1.0.0\nBundle-Version: 2.0.0";
+
+      final Map<String, String> headers = ManifestHeaderScanner.scan(manifest, "Bundle-SymbolicName", "Bundle-Version");
+
+      assertThat(headers.get("Bundle-SymbolicName"), equalTo("org.exampleBundle-Version: 1.0.0"));
+      assertThat(headers.get("Bundle-Version"), equalTo("2.0.0"));
+   }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 Bernd Vogt and others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sourcepit.tpmp.store;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNot.not;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sourcepit.tpmp.LinkMode;
+
+public class BundleStoreTest {
+   @Rule
+   public TemporaryFolder tmp = new TemporaryFolder();
+
+   @Test
+   public void testGetJar() throws Exception {
+      final File jarFile = tmp.newFile("bar_1.0.0.jar");
+      FileUtils.writeStringToFile(jarFile, "bar", "UTF-8");
+
+      final BundleStore bundleStore = new BundleStore(tmp.newFolder("store"));
+
+      final File entry = bundleStore.getJar("plugins", "bar", "1.0.0", jarFile);
+      assertThat(FileUtils.readFileToString(entry, "UTF-8"), equalTo("bar"));
+      assertThat(bundleStore.getJar("plugins", "bar", "1.0.0", jarFile), equalTo(entry));
+
+      // changed content gets its own entry
+      FileUtils.writeStringToFile(jarFile, "bar2", "UTF-8");
+      final File changed = bundleStore.getJar("plugins", "bar", "1.0.0", jarFile);
+      assertThat(changed, not(equalTo(entry)));
+      assertThat(FileUtils.readFileToString(changed, "UTF-8"), equalTo("bar2"));
+   }
+
+   @Test
+   public void testCollectGarbage() throws Exception {
+      final File jarFile = tmp.newFile("bar_1.0.0.jar");
+      FileUtils.writeStringToFile(jarFile, "bar", "UTF-8");
+      final File bundleDir = tmp.newFolder("baz_1.0.0");
+      FileUtils.writeStringToFile(new File(bundleDir, "META-INF/MANIFEST.MF"), "baz", "UTF-8");
+
+      final BundleStore bundleStore = new BundleStore(tmp.newFolder("store"));
+
+      final File platformDir = tmp.newFolder("platform");
+      final File linkedJar = new File(platformDir, "plugins/bar_1.0.0.jar");
+      final File jarEntry = bundleStore.getJar("plugins", "bar", "1.0.0", jarFile);
+      LinkMode.HARDLINK.linkFile(jarEntry, linkedJar);
+      bundleStore.addReference(jarEntry, linkedJar);
+
+      final File linkedDir = new File(platformDir, "plugins/baz_1.0.0");
+      final File dirEntry = bundleStore.getDirectory("plugins", "baz", "1.0.0", bundleDir);
+      LinkMode.HARDLINK.linkDirectory(dirEntry, linkedDir);
+      bundleStore.addReference(dirEntry, linkedDir);
+
+      assertThat(bundleStore.collectGarbage(-1, 0), is(0));
+
+      LinkMode.delete(linkedJar);
+      LinkMode.delete(linkedDir);
+
+      assertThat(bundleStore.collectGarbage(-1, 0), is(2));
+      assertThat(jarEntry.exists(), is(false));
+      assertThat(dirEntry.exists(), is(false));
+
+      // index entries of collected bundles are dropped, so the bundles are stored again
+      assertThat(bundleStore.getJar("plugins", "bar", "1.0.0", jarFile).exists(), is(true));
+   }
+
+   @Test
+   public void testCollectGarbageWhileInUse() throws Exception {
+      final File jarFile = tmp.newFile("bar_1.0.0.jar");
+      FileUtils.writeStringToFile(jarFile, "bar", "UTF-8");
+
+      final File storeDir = tmp.newFolder("store");
+      final BundleStore bundleStore = new BundleStore(storeDir);
+      bundleStore.open();
+      try {
+         final File entry = bundleStore.getJar("plugins", "bar", "1.0.0", jarFile);
+         assertThat(new BundleStore(storeDir).collectGarbage(-1, 0), is(-1));
+         assertThat(entry.exists(), is(true));
+      }
+      finally {
+         bundleStore.close();
+      }
+      assertThat(new BundleStore(storeDir).collectGarbage(-1, 0), is(1));
+
+      // the garbage collection released its lock, so builds may use the store again
+      bundleStore.open();
+      try {
+         assertThat(new BundleStore(storeDir).collectGarbage(-1, 0), is(-1));
+      }
+      finally {
+         bundleStore.close();
+      }
+   }
+}